@@ -7,7 +7,7 @@ import com.badlogic.gdx.scenes.scene2d.actions.Actions;
 import com.badlogic.gdx.scenes.scene2d.actions.SequenceAction;
 import com.badlogic.gdx.scenes.scene2d.ui.Image;
 import com.mygdx.game.utils.Geolocation;
-import com.mygdx.game.utils.MapRasterTiles;
+import com.mygdx.game.utils.MapProjection;
 import com.mygdx.game.utils.ZoomXY;
 
 public class BoatAnimation {
@@ -59,9 +59,20 @@ public class BoatAnimation {
     }
 
     static private Vector2[] positionsFromGeolocations(Geolocation[] geolocations, ZoomXY beginTile){
-        Vector2[] positions = new Vector2[geolocations.length];
-        for(int i=0; i<geolocations.length; i++)
-            positions[i] = MapRasterTiles.getPixelPosition(geolocations[i].lat, geolocations[i].lng, beginTile.x, beginTile.y);
+        int count = geolocations.length;
+        double[] lat = new double[count];
+        double[] lng = new double[count];
+        for(int i=0; i<count; i++){
+            lat[i] = geolocations[i].lat;
+            lng[i] = geolocations[i].lng;
+        }
+        float[] x = new float[count];
+        float[] y = new float[count];
+        MapProjection.forMap(beginTile).project(lat, lng, x, y, count);
+
+        Vector2[] positions = new Vector2[count];
+        for(int i=0; i<count; i++)
+            positions[i] = new Vector2(x[i], y[i]);
         return positions;
     }
 
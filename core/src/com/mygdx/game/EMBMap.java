@@ -9,18 +9,13 @@ import com.badlogic.gdx.audio.Music;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.TextureAtlas;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.input.GestureDetector;
-import com.badlogic.gdx.maps.MapLayers;
-import com.badlogic.gdx.maps.tiled.TiledMap;
-import com.badlogic.gdx.maps.tiled.TiledMapRenderer;
-import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
-import com.badlogic.gdx.maps.tiled.renderers.OrthogonalTiledMapRenderer;
-import com.badlogic.gdx.maps.tiled.tiles.StaticTiledMapTile;
 import com.badlogic.gdx.math.Interpolation;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
@@ -40,6 +35,7 @@ import com.badlogic.gdx.scenes.scene2d.utils.ClickListener;
 import com.badlogic.gdx.scenes.scene2d.utils.TextureRegionDrawable;
 import com.badlogic.gdx.utils.Align;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.ScreenUtils;
 import com.badlogic.gdx.utils.viewport.FitViewport;
 import com.mongodb.client.FindIterable;
@@ -54,16 +50,23 @@ import com.mygdx.game.utils.BlockchainData;
 import com.mygdx.game.utils.BlockchainRequest;
 import com.mygdx.game.utils.Config;
 import com.mygdx.game.utils.Constants;
+import com.mygdx.game.utils.CrowdHeatmap;
 import com.mygdx.game.utils.DancingCharacter;
 import com.mygdx.game.utils.Geolocation;
 import com.mygdx.game.utils.Location;
+import com.mygdx.game.utils.MapProjection;
 import com.mygdx.game.utils.MapRasterTiles;
+import com.mygdx.game.utils.MarkerClusterIndex;
+import com.mygdx.game.utils.MarkerLabelLayer;
 import com.mygdx.game.utils.MongoDBManager;
+import com.mygdx.game.utils.ProjectionCache;
+import com.mygdx.game.utils.SpatialGrid;
+import com.mygdx.game.utils.SpriteCacheLayer;
+import com.mygdx.game.utils.StreamingTileLayer;
 import com.mygdx.game.utils.ZoomXY;
 import com.badlogic.gdx.graphics.g2d.ParticleEffect;
 import org.bson.Document;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -76,7 +79,6 @@ import java.util.regex.Pattern;
 
 import com.badlogic.gdx.utils.Json;
 import com.badlogic.gdx.utils.JsonWriter;
-import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.utils.Json;
 import com.badlogic.gdx.utils.JsonValue;
 
@@ -86,12 +88,13 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     private ShapeRenderer shapeRenderer;
     private Vector3 touchPosition;
 
-    private TiledMap tiledMap;
-    private TiledMapRenderer tiledMapRenderer;
+    private StreamingTileLayer tileLayer;
     private OrthographicCamera camera;
 
-    private Texture[] mapTiles;
     private ZoomXY beginTile;
+    private MapProjection projection;
+    // map positions of markers, dots, characters and event actors
+    private ProjectionCache projectionCache;
 
     private SpriteBatch spriteBatch;
 
@@ -99,6 +102,26 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     private FitViewport hudViewport;
     private Stage hudStage;
     private Skin skin;
+    private MarkerLabelLayer markerLabels;
+    // width and height of the location markers in world units
+    private static final float MARKER_SIZE = 100;
+    // clusters are about one marker wide at the default zoom, half as wide per level closer
+    private static final float CLUSTER_CELL_SIZE = MARKER_SIZE / (1 << (Constants.MAX_ZOOM - MarkerLabelLayer.DEFAULT_ZOOM_BUCKET));
+    private final MarkerClusterIndex<Location> markerClusters =
+            new MarkerClusterIndex<>(Constants.MIN_ZOOM, Constants.MAX_ZOOM, CLUSTER_CELL_SIZE);
+    private int markerClustersVersion = -1;
+    private final Array<MarkerClusterIndex.Cluster<Location>> visibleClusters = new Array<>();
+    private final IntMap<String> clusterCountTexts = new IntMap<>();
+    // clusters of the whole map at one zoom level, shared by the picking grid and the marker overlay
+    private final Array<MarkerClusterIndex.Cluster<Location>> levelClusters = new Array<>();
+    private int levelClustersModCount = -1;
+    private int levelClustersZoomLevel = -1;
+    private int levelClustersVersion;
+    private final SpatialGrid<MarkerClusterIndex.Cluster<Location>> markerGrid = new SpatialGrid<>(MARKER_SIZE);
+    private int markerGridVersion = -1;
+    // markers, labels and counts of levelClusters, recorded once per change
+    private SpriteCacheLayer markerOverlay;
+    private int markerOverlayVersion = -1;
     private boolean showLangExample = false;
 
     // animation
@@ -126,6 +149,10 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     private float targetX = 0;
     private float targetY = 0;
     private boolean isZoomedIn = false;
+    // fling inertia in world units per second, decays every frame
+    private static final float FLING_DAMPING = 0.05f; // share of the velocity left after one second
+    private float flingVelocityX = 0;
+    private float flingVelocityY = 0;
     public static final AssetManager assetManager = new AssetManager();
     private TextureAtlas gameplayAtlas;
     private Music danceMusic;
@@ -138,12 +165,15 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     private BitmapFont font;
     private Blockchain blockchain;
     private boolean showBlockchainDots = false;
+    private CrowdHeatmap crowdHeatmap;
 
     private void loadTexturesAndSkin() {
         markerInstitutionTextures = new Array<>();
         // markerInstitutionTextures.add(new TextureRegion.findRegion(RegionNames.INSTITUTION));
 
         skin = new Skin(Gdx.files.internal("ui/uiskin.json"));
+        markerLabels = new MarkerLabelLayer(skin.get("title", Label.LabelStyle.class), MARKER_SIZE);
+        markerLabels.placeAbove("Oder Minoriti", "SNG");
 
     }
 
@@ -224,40 +254,24 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
         camera.update();
 
         spriteBatch = new SpriteBatch();
+        markerOverlay = new SpriteCacheLayer();
+        crowdHeatmap = new CrowdHeatmap();
         hudViewport = new FitViewport(Constants.HUD_WIDTH, Constants.HUD_HEIGHT);
         viewport = new FitViewport(Constants.MAP_WIDTH / 2f, Constants.MAP_HEIGHT / 2f, camera);
         font = new BitmapFont();
 
         touchPosition = new Vector3();
 
-        try {
-            System.out.println("Cache size before fetching tiles: " + MapRasterTiles.getTileCacheSize());
+        System.out.println("Cache size before fetching tiles: " + MapRasterTiles.getTileCacheSize() + ", dedup ratio " + MapRasterTiles.getTileCacheDedupRatio());
 
-            ZoomXY centerTile = MapRasterTiles.getTileNumber(CENTER_GEOLOCATION.lat, CENTER_GEOLOCATION.lng, Constants.ZOOM);
-            mapTiles = MapRasterTiles.getRasterTileZone(centerTile, Constants.NUM_TILES);
-            beginTile = new ZoomXY(Constants.ZOOM, centerTile.x - ((Constants.NUM_TILES - 1) / 2), centerTile.y - ((Constants.NUM_TILES - 1) / 2));
+        ZoomXY centerTile = MapRasterTiles.getTileNumber(CENTER_GEOLOCATION.lat, CENTER_GEOLOCATION.lng, Constants.ZOOM);
+        beginTile = new ZoomXY(Constants.ZOOM, centerTile.x - ((Constants.NUM_TILES - 1) / 2), centerTile.y - ((Constants.NUM_TILES - 1) / 2));
 
-            System.out.println("Cache size after fetching tiles: " + MapRasterTiles.getTileCacheSize());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        tiledMap = new TiledMap();
-        MapLayers layers = tiledMap.getLayers();
-
-        TiledMapTileLayer layer = new TiledMapTileLayer(Constants.NUM_TILES, Constants.NUM_TILES, MapRasterTiles.TILE_SIZE, MapRasterTiles.TILE_SIZE);
-        int index = 0;
-        for (int j = Constants.NUM_TILES - 1; j >= 0; j--) {
-            for (int i = 0; i < Constants.NUM_TILES; i++) {
-                TiledMapTileLayer.Cell cell = new TiledMapTileLayer.Cell();
-                cell.setTile(new StaticTiledMapTile(new TextureRegion(mapTiles[index], MapRasterTiles.TILE_SIZE, MapRasterTiles.TILE_SIZE)));
-                layer.setCell(i, j, cell);
-                index++;
-            }
-        }
-        layers.add(layer);
-
-        tiledMapRenderer = new OrthogonalTiledMapRenderer(tiledMap);
+        projection = MapProjection.forMap(beginTile);
+        double projectionError = projection.linearize(MapProjection.DEFAULT_MAX_LINEAR_ERROR);
+        System.out.println("Projection " + (projection.isLinearized() ? "linearized" : "exact") + ", linear error " + projectionError + " px");
+        projectionCache = new ProjectionCache(projection);
+        tileLayer = new StreamingTileLayer(beginTile, Constants.MAP_HEIGHT);
 
         // buttons
         hudStage = new Stage(hudViewport, spriteBatch);
@@ -280,17 +294,19 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     public void render() {
         ScreenUtils.clear(0, 0, 0, 1);
 
+        applyFling(Gdx.graphics.getDeltaTime());
         handleInput();
 
         camera.update();
 
-        tiledMapRenderer.setView(camera);
-        tiledMapRenderer.render();
+        // tiles decoded since the last frame, within the per-frame upload budget
+        MapRasterTiles.getTileUploader().update();
+        tileLayer.render(spriteBatch, camera);
 
-        drawMarkers(spriteBatch);
         if (showBlockchainDots) {
-            drawDots();
+            drawCrowdHeatmap();
         }
+        drawMarkers(spriteBatch);
 
         hudStage.act(Gdx.graphics.getDeltaTime());
         stage.act(Gdx.graphics.getDeltaTime());
@@ -368,6 +384,7 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
             }
         }
         for (DancingCharacter character : dancingCharacters) {
+            projectionCache.attach(character.getImage(), character.getLatitude(), character.getLongitude());
             ParticleEffect characterParticleEffect = new ParticleEffect();
             characterParticleEffect.load(Gdx.files.internal("assets/particles/note"), Gdx.files.internal("assets/particles"));
             characterParticleEffect.setPosition(character.getX(), character.getY());
@@ -379,6 +396,7 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     private void clearDancingCharacters() {
         for (DancingCharacter dancingCharacter : dancingCharacters) {
             dancingCharacter.getImage().remove();
+            projectionCache.remove(dancingCharacter.getImage());
         }
         dancingCharacters.clear();
     }
@@ -387,56 +405,54 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
         shapeRenderer.setProjectionMatrix(camera.combined);
         shapeRenderer.setAutoShapeType(true);
 
-        spriteBatch.begin();
-
-        for (Location location : locations) {
-            Geolocation geolocation = location.getGeolocation();
-            Vector2 marker = MapRasterTiles.getPixelPosition(geolocation.lat, geolocation.lng, beginTile.x, beginTile.y);
-            spriteBatch.draw(markerInstitutionTextures.first(), marker.x, marker.y, 100, 100);
-
-            String institutionName = location.getInstitution();
-            Label label = new Label(" " + institutionName + " ", skin, "title");
-            //  label.setHeight(30f);
-            float labelWidth = label.getWidth();
-            float labelX = marker.x + (50 - labelWidth / 2);
-            float labelY;
-            if ("Oder Minoriti".equals(institutionName) || "SNG".equals(institutionName)) {
-                labelY = marker.y + 104;
-            } else{
-                labelY = marker.y - 40;
+        int zoomLevel = tileLayer.getZoomLevel(camera.zoom);
+        Array<MarkerClusterIndex.Cluster<Location>> clusters = getLevelClusters(zoomLevel);
+        if (markerOverlayVersion != levelClustersVersion) {
+            drawClusters(markerOverlay.begin(), clusters, zoomLevel);
+            if (!markerOverlay.end()) {
+                System.out.println("Marker overlay: " + clusters.size + " clusters do not fit, drawing them per frame");
             }
+            markerOverlayVersion = levelClustersVersion;
+        }
 
-            label.setPosition(labelX, labelY);
-            label.draw(spriteBatch, 1);
-
-
-            // the marker is clicked
-            if (Gdx.input.justTouched()) {
-                Vector3 touchPos = new Vector3(Gdx.input.getX(), Gdx.input.getY(), 0);
-                camera.unproject(touchPos);
+        if (markerOverlay.isValid()) {
+            markerOverlay.draw(camera.combined);
+        } else {
+            float halfWidth = camera.viewportWidth * camera.zoom / 2f;
+            float halfHeight = camera.viewportHeight * camera.zoom / 2f;
+            // markers are drawn up and right of their position, so the area reaches one marker further down and left
+            getMarkerClusters().query(zoomLevel,
+                    camera.position.x - halfWidth - MARKER_SIZE, camera.position.y - halfHeight - MARKER_SIZE,
+                    camera.position.x + halfWidth, camera.position.y + halfHeight, visibleClusters);
+            spriteBatch.begin();
+            drawClusters(spriteBatch, visibleClusters, zoomLevel);
+            spriteBatch.end();
+        }
 
-                float markerWidth = 100;
-                float markerHeight = 100;
+        performZoomEffect();
+    }
 
-                if (touchPos.x >= marker.x && touchPos.x <= marker.x + markerWidth &&
-                        touchPos.y >= marker.y && touchPos.y <= marker.y + markerHeight) {
-                    if(eventAnimationVisible){
-                        if (isZoomedIn) {
-                            zoomOut();
-                        } else {
-                            zoomIn(marker.x, marker.y, markerWidth, markerHeight);
-                            performZoomEffect();
-                        }
-                    } else {
-                        showMarkerInfo(location);
-                    }
-                }
+    /**
+     * Draws markers, then label frames, then texts, so each texture is drawn in one run.
+     */
+    private void drawClusters(Batch batch, Array<MarkerClusterIndex.Cluster<Location>> clusters, int zoomLevel) {
+        for (MarkerClusterIndex.Cluster<Location> cluster : clusters) {
+            batch.draw(markerInstitutionTextures.first(), cluster.x, cluster.y, MARKER_SIZE, MARKER_SIZE);
+        }
+        // labels and counts after all markers, so no marker covers them
+        for (MarkerClusterIndex.Cluster<Location> cluster : clusters) {
+            if (cluster.item != null) {
+                markerLabels.drawBackground(batch, cluster.item, cluster.x, cluster.y, zoomLevel);
+            }
+        }
+        for (MarkerClusterIndex.Cluster<Location> cluster : clusters) {
+            if (cluster.item != null) {
+                markerLabels.drawText(batch, cluster.item, cluster.x, cluster.y, zoomLevel);
+            } else {
+                font.draw(batch, getClusterCountText(cluster.count), cluster.x,
+                        cluster.y + (MARKER_SIZE + font.getCapHeight()) / 2, MARKER_SIZE, Align.center, false);
             }
         }
-
-        spriteBatch.end();
-
-        performZoomEffect();
     }
 
     private void zoomIn(float markerX, float markerY, float markerWidth, float markerHeight) {
@@ -473,6 +489,7 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
             camera.position.x = MathUtils.lerp(camera.position.x, targetX, easedAlpha);
             camera.position.y = MathUtils.lerp(camera.position.y, targetY, easedAlpha);
             camera.zoom = MathUtils.lerp(camera.zoom, targetZoom, easedAlpha);
+            tileLayer.cameraMoved();
 
             if (zoomTimer >= zoomDuration) {
                 isZooming = false;
@@ -590,19 +607,121 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
             }
         }
 
-        //  MapRasterTiles.saveTileCache();
+        System.out.println("Tile prefetch: " + tileLayer.getPrefetcher()
+                + ", " + MapRasterTiles.getTileLoader().getCancelledLoads() + " loads cancelled in total");
+        markerOverlay.dispose();
+        crowdHeatmap.dispose();
+        tileLayer.dispose();
+        MapRasterTiles.dispose();
+        MapRasterTiles.saveTileCache();
     }
 
     @Override
     public boolean touchDown(float x, float y, int pointer, int button) {
         touchPosition.set(x, y, 0);
         camera.unproject(touchPosition);
+        // a touch stops the glide of a previous fling
+        flingVelocityX = 0;
+        flingVelocityY = 0;
         return false;
     }
 
     @Override
     public boolean tap(float x, float y, int count, int button) {
-        return false;
+        touchPosition.set(x, y, 0);
+        camera.unproject(touchPosition);
+        MarkerClusterIndex.Cluster<Location> cluster = getMarkerGrid().pick(touchPosition.x, touchPosition.y);
+        if (cluster == null) {
+            return false;
+        }
+        Location location = cluster.item;
+        if (location == null) {
+            // a cluster is clicked, zoom in until it splits
+            zoomIntoCluster(cluster);
+            return true;
+        }
+
+        // the marker is clicked
+        if (eventAnimationVisible) {
+            if (isZoomedIn) {
+                zoomOut();
+            } else {
+                ProjectionCache.Position marker = projectionCache.get(location, location.getGeolocation().lat, location.getGeolocation().lng);
+                zoomIn(marker.x, marker.y, MARKER_SIZE, MARKER_SIZE);
+                performZoomEffect();
+            }
+        } else {
+            showMarkerInfo(location);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the marker clusters, reprojected when the projection changed. Locations added since the
+     * last call are added to the index, the others stay where they are.
+     */
+    private MarkerClusterIndex<Location> getMarkerClusters() {
+        if (markerClustersVersion != projectionCache.getVersion()) {
+            markerClusters.clear();
+            markerClustersVersion = projectionCache.getVersion();
+        }
+        // locations are only ever appended
+        for (int i = markerClusters.size(); i < locations.size(); i++) {
+            Location location = locations.get(i);
+            Geolocation geolocation = location.getGeolocation();
+            ProjectionCache.Position marker = projectionCache.get(location, geolocation.lat, geolocation.lng);
+            markerClusters.add(location, marker.x, marker.y);
+        }
+        return markerClusters;
+    }
+
+    private String getClusterCountText(int count) {
+        String text = clusterCountTexts.get(count);
+        if (text == null) {
+            text = String.valueOf(count);
+            clusterCountTexts.put(count, text);
+        }
+        return text;
+    }
+
+    private void zoomIntoCluster(MarkerClusterIndex.Cluster<Location> cluster) {
+        isZooming = true;
+        zoomTimer = 0;
+
+        targetX = cluster.x + MARKER_SIZE / 2f;
+        targetY = cluster.y + MARKER_SIZE / 2f;
+        // one zoom level closer, where the cells are half as wide
+        targetZoom = Math.max(camera.zoom / 2f, (float) Math.pow(2, Constants.ZOOM - Constants.MAX_ZOOM));
+    }
+
+    /**
+     * Returns the clusters of the whole map at a zoom level, queried again when markers were added or
+     * reprojected or the zoom level changed.
+     */
+    private Array<MarkerClusterIndex.Cluster<Location>> getLevelClusters(int zoomLevel) {
+        MarkerClusterIndex<Location> clusters = getMarkerClusters();
+        if (levelClustersModCount != clusters.getModCount() || levelClustersZoomLevel != zoomLevel) {
+            clusters.query(zoomLevel, -Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, levelClusters);
+            levelClustersModCount = clusters.getModCount();
+            levelClustersZoomLevel = zoomLevel;
+            levelClustersVersion++;
+        }
+        return levelClusters;
+    }
+
+    /**
+     * Returns the bounds of the markers and clusters of the current zoom level for picking.
+     */
+    private SpatialGrid<MarkerClusterIndex.Cluster<Location>> getMarkerGrid() {
+        Array<MarkerClusterIndex.Cluster<Location>> clusters = getLevelClusters(tileLayer.getZoomLevel(camera.zoom));
+        if (markerGridVersion != levelClustersVersion) {
+            markerGrid.clear();
+            for (MarkerClusterIndex.Cluster<Location> cluster : clusters) {
+                markerGrid.add(cluster, cluster.x, cluster.y, MARKER_SIZE, MARKER_SIZE);
+            }
+            markerGridVersion = levelClustersVersion;
+        }
+        return markerGrid;
     }
 
     @Override
@@ -612,12 +731,32 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
 
     @Override
     public boolean fling(float velocityX, float velocityY, int button) {
+        // same directions as pan, keep gliding after the finger is lifted
+        flingVelocityX = -velocityX;
+        flingVelocityY = velocityY;
+        tileLayer.getPrefetcher().fling(flingVelocityX, flingVelocityY);
         return false;
     }
 
+    private void applyFling(float delta) {
+        if (flingVelocityX == 0 && flingVelocityY == 0) {
+            return;
+        }
+        camera.translate(flingVelocityX * delta, flingVelocityY * delta);
+        tileLayer.cameraMoved();
+        float damping = (float) Math.pow(FLING_DAMPING, delta);
+        flingVelocityX *= damping;
+        flingVelocityY *= damping;
+        if (Math.abs(flingVelocityX) < 1 && Math.abs(flingVelocityY) < 1) {
+            flingVelocityX = 0;
+            flingVelocityY = 0;
+        }
+    }
+
     @Override
     public boolean pan(float x, float y, float deltaX, float deltaY) {
         camera.translate(-deltaX, deltaY);
+        tileLayer.cameraMoved();
         return false;
     }
 
@@ -629,9 +768,10 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     @Override
     public boolean zoom(float initialDistance, float distance) {
         if (initialDistance >= distance)
-            camera.zoom += 0.02;
+            camera.zoom *= 1.02f;
         else
-            camera.zoom -= 0.02;
+            camera.zoom /= 1.02f;
+        tileLayer.cameraMoved();
         return false;
     }
 
@@ -646,32 +786,43 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
     }
 
     private void handleInput() {
+        boolean moved = false;
         if (Gdx.input.isKeyPressed(Input.Keys.A)) {
-            camera.zoom += 0.02;
+            camera.zoom *= 1.02f;
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Input.Keys.Q)) {
-            camera.zoom -= 0.02;
+            camera.zoom /= 1.02f;
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Input.Keys.LEFT)) {
             camera.translate(-3, 0, 0);
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Input.Keys.RIGHT)) {
             camera.translate(3, 0, 0);
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Input.Keys.DOWN)) {
             camera.translate(0, -3, 0);
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Input.Keys.UP)) {
             camera.translate(0, 3, 0);
+            moved = true;
+        }
+        if (moved) {
+            tileLayer.cameraMoved();
         }
 
-        camera.zoom = MathUtils.clamp(camera.zoom, 0.5f, 2f);
+        // one slippy zoom level per doubling of the camera zoom
+        camera.zoom = MathUtils.clamp(camera.zoom, (float) Math.pow(2, Constants.ZOOM - Constants.MAX_ZOOM), (float) Math.pow(2, Constants.ZOOM - Constants.MIN_ZOOM));
 
         float effectiveViewportWidth = camera.viewportWidth * camera.zoom;
         float effectiveViewportHeight = camera.viewportHeight * camera.zoom;
 
-        camera.position.x = MathUtils.clamp(camera.position.x, effectiveViewportWidth / 2f, Constants.MAP_WIDTH - effectiveViewportWidth / 2f);
-        camera.position.y = MathUtils.clamp(camera.position.y, effectiveViewportHeight / 2f, Constants.MAP_HEIGHT - effectiveViewportHeight / 2f);
+        camera.position.x = MathUtils.clamp(camera.position.x, tileLayer.getMinWorldX() + effectiveViewportWidth / 2f, tileLayer.getMaxWorldX() - effectiveViewportWidth / 2f);
+        camera.position.y = MathUtils.clamp(camera.position.y, tileLayer.getMinWorldY() + effectiveViewportHeight / 2f, tileLayer.getMaxWorldY() - effectiveViewportHeight / 2f);
     }
 
     public void createDiscoBall(Geolocation location) {
@@ -679,7 +830,7 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
         discoBall.setWidth(75f);
         discoBall.setHeight(75f);
 
-        Vector2 position = MapRasterTiles.getPixelPosition(location.lat, location.lng, beginTile.x, beginTile.y);
+        ProjectionCache.Position position = projectionCache.attach(discoBall, location.lat, location.lng);
         float shiftAmount = 40f;
         discoBall.setPosition(position.x - shiftAmount, position.y);
 
@@ -707,7 +858,7 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
         masks.setWidth(70f);
         masks.setHeight(70f);
 
-        Vector2 position = MapRasterTiles.getPixelPosition(location.lat, location.lng, beginTile.x, beginTile.y);
+        ProjectionCache.Position position = projectionCache.attach(masks, location.lat, location.lng);
         float shiftAmount = 30f;
         masks.setPosition(position.x - shiftAmount, position.y);
 
@@ -732,7 +883,7 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
         microphones.setWidth(50f);
         microphones.setHeight(50f);
 
-        Vector2 position = MapRasterTiles.getPixelPosition(location.lat, location.lng, beginTile.x, beginTile.y);
+        ProjectionCache.Position position = projectionCache.attach(microphones, location.lat, location.lng);
         System.out.println("Microfone.x: " + position.x + ", position.y: " + position.y);
         float shiftAmount = -100f;
         microphones.setPosition(position.x - shiftAmount, position.y);
@@ -785,12 +936,15 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
 
         for (Actor discoBall : discoBallsToRemove) {
             discoBall.remove();
+            projectionCache.remove(discoBall);
         }
         for (Actor mask : masksToRemove) {
             mask.remove();
+            projectionCache.remove(mask);
         }
         for (Actor microphone : microphonesToRemove) {
             microphone.remove();
+            projectionCache.remove(microphone);
         }
     }
 
@@ -956,6 +1110,7 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
             return;
         }
         JsonValue blocks = blockchainJson.get("blockchain");
+        final List<BlockchainData> received = new ArrayList<>();
         for (JsonValue block : blocks) {
             String data = block.getString("data", "");
             if (!data.equals("Genesis Block")) {
@@ -965,45 +1120,40 @@ public class EMBMap extends ApplicationAdapter implements GestureDetector.Gestur
                     int peopleCount = Integer.parseInt(matcher.group(1));
                     double latitude = Double.parseDouble(matcher.group(2));
                     double longitude = Double.parseDouble(matcher.group(3));
-                    BlockchainData blockchainData = new BlockchainData(latitude, longitude, peopleCount);
-                    blockchain.addData(blockchainData);
+                    received.add(new BlockchainData(latitude, longitude, peopleCount));
                 }
             }
         }
         Gdx.app.postRunnable(new Runnable() {
             @Override
             public void run() {
-                drawDots();
+                // the response holds the whole chain, it replaces what was received before
+                for (BlockchainData data : blockchain.blockchainDataList) {
+                    projectionCache.remove(data);
+                }
+                blockchain.blockchainDataList.clear();
+                for (BlockchainData data : received) {
+                    blockchain.addData(data);
+                }
+                crowdHeatmap.update(blockchain.blockchainDataList, projectionCache);
             }
         });
     }
 
-
-
-    private void drawDots() {
-        shapeRenderer.setProjectionMatrix(camera.combined);
-
-        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
-        shapeRenderer.setColor(Color.RED);
-
-        int dotSpacing = 10;
-        for (BlockchainData data : blockchain.blockchainDataList) {
-            for (int i = 0; i < data.peopleCount; i++) {
-                Vector2 position = MapRasterTiles.getPixelPosition(data.latitude, data.longitude, beginTile.x, beginTile.y);
-
-                if (position != null) {
-                    float xOffset = (i % 4) * (i * (-0.1f)) * dotSpacing;
-                    float yOffset = (i % 3) * dotSpacing;
-                    shapeRenderer.circle(position.x + xOffset, position.y + yOffset, 5);
-                    //System.out.println("Drawing dot at position.x: " + (position.x + xOffset) + ", position.y: " + position.y);
-                } else {
-                    System.out.println("Unable to calculate position for latitude: " + data.latitude + ", longitude: " + data.longitude);
-                }
-            }
+    /**
+     * Draws the crowd density, built again only if the projection changed since new data arrived.
+     */
+    private void drawCrowdHeatmap() {
+        if (crowdHeatmap.getVersion() != projectionCache.getVersion()) {
+            crowdHeatmap.update(blockchain.blockchainDataList, projectionCache);
         }
-        shapeRenderer.end();
+        spriteBatch.setProjectionMatrix(camera.combined);
+        spriteBatch.begin();
+        crowdHeatmap.draw(spriteBatch);
+        spriteBatch.end();
     }
 
 
 
+
 }
\ No newline at end of file
@@ -5,6 +5,9 @@ import com.badlogic.gdx.Gdx;
 public class Constants {
     public static final int NUM_TILES = 5;
     public static final int ZOOM = 15;
+    // range of slippy zoom levels the map switches between, ZOOM is shown at camera zoom 1
+    public static final int MIN_ZOOM = 12;
+    public static final int MAX_ZOOM = 18;
     public static final int MAP_WIDTH = MapRasterTiles.TILE_SIZE * NUM_TILES;
     public static final int MAP_HEIGHT = MapRasterTiles.TILE_SIZE * NUM_TILES;
     public static final int HUD_WIDTH = Gdx.graphics.getWidth();
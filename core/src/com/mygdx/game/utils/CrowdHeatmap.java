@@ -0,0 +1,241 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.utils.Disposable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Crowd density of the blockchain people counts, drawn as one texture over the map.
+ * <p>
+ * The counts are summed into a grid of cells in map space, blurred and coloured into a pixmap that is
+ * uploaded once. A frame draws a single quad, whatever the headcounts; the grid is only built again when
+ * new data arrives or the projection changes. Render thread only.
+ */
+public class CrowdHeatmap implements Disposable {
+    // width and height of a cell in world units, larger if the data would need more cells
+    private static final float CELL_SIZE = 8;
+    private static final int MAX_CELLS = 512;
+    // how far a crowd spreads, in world units
+    private static final float BLUR_RADIUS = 64;
+    // most opaque a cell gets, the map stays readable under the densest crowd
+    private static final float MAX_ALPHA = 0.75f;
+
+    private float[] density = new float[0];
+    private float[] blurred = new float[0];
+    private Pixmap pixmap;
+    private Texture texture;
+    // map position and size of the texture
+    private float x;
+    private float y;
+    private float width;
+    private float height;
+    private int version = -1;
+
+    /**
+     * Builds the heatmap of the data and uploads it, replacing the previous one.
+     *
+     * @param data
+     * @param projections map positions of the data, keyed by data entry
+     */
+    public void update(List<BlockchainData> data, ProjectionCache projections) {
+        version = projections.getVersion();
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < data.size(); i++) {
+            BlockchainData entry = data.get(i);
+            if (entry.peopleCount <= 0) {
+                continue;
+            }
+            ProjectionCache.Position position = projections.get(entry, entry.latitude, entry.longitude);
+            minX = Math.min(minX, position.x);
+            minY = Math.min(minY, position.y);
+            maxX = Math.max(maxX, position.x);
+            maxY = Math.max(maxY, position.y);
+        }
+        if (minX > maxX) {
+            width = 0;
+            height = 0;
+            return;
+        }
+
+        // room for the blur around the outermost crowds
+        minX -= BLUR_RADIUS;
+        minY -= BLUR_RADIUS;
+        maxX += BLUR_RADIUS;
+        maxY += BLUR_RADIUS;
+        float cellSize = Math.max(CELL_SIZE, Math.max(maxX - minX, maxY - minY) / MAX_CELLS);
+        int columns = (int) Math.ceil((maxX - minX) / cellSize) + 1;
+        int rows = (int) Math.ceil((maxY - minY) / cellSize) + 1;
+        int cells = columns * rows;
+        if (density.length < cells) {
+            density = new float[cells];
+            blurred = new float[cells];
+        } else {
+            Arrays.fill(density, 0, cells, 0);
+        }
+
+        for (int i = 0; i < data.size(); i++) {
+            BlockchainData entry = data.get(i);
+            if (entry.peopleCount <= 0) {
+                continue;
+            }
+            ProjectionCache.Position position = projections.get(entry, entry.latitude, entry.longitude);
+            int column = (int) ((position.x - minX) / cellSize);
+            int row = (int) ((position.y - minY) / cellSize);
+            density[row * columns + column] += entry.peopleCount;
+        }
+
+        int radius = Math.max(1, Math.round(BLUR_RADIUS / cellSize));
+        float[] kernel = gaussianKernel(radius);
+        // separable, rows into blurred and columns back into density
+        for (int row = 0; row < rows; row++) {
+            int offset = row * columns;
+            for (int column = 0; column < columns; column++) {
+                float sum = 0;
+                int from = Math.max(0, column - radius);
+                int to = Math.min(columns - 1, column + radius);
+                for (int k = from; k <= to; k++) {
+                    sum += density[offset + k] * kernel[k - column + radius];
+                }
+                blurred[offset + column] = sum;
+            }
+        }
+        float max = 0;
+        for (int row = 0; row < rows; row++) {
+            int from = Math.max(0, row - radius);
+            int to = Math.min(rows - 1, row + radius);
+            for (int column = 0; column < columns; column++) {
+                float sum = 0;
+                for (int k = from; k <= to; k++) {
+                    sum += blurred[k * columns + column] * kernel[k - row + radius];
+                }
+                density[row * columns + column] = sum;
+                max = Math.max(max, sum);
+            }
+        }
+
+        upload(columns, rows, max);
+        x = minX;
+        y = minY;
+        width = columns * cellSize;
+        height = rows * cellSize;
+    }
+
+    /**
+     * Colours the blurred grid into the pixmap and uploads it, reusing pixmap and texture if the size
+     * did not change.
+     */
+    private void upload(int columns, int rows, float max) {
+        if (pixmap == null || pixmap.getWidth() != columns || pixmap.getHeight() != rows) {
+            if (pixmap != null) {
+                pixmap.dispose();
+            }
+            if (texture != null) {
+                texture.dispose();
+                texture = null;
+            }
+            pixmap = new Pixmap(columns, rows, Pixmap.Format.RGBA8888);
+        }
+
+        ByteBuffer pixels = pixmap.getPixels();
+        pixels.clear();
+        for (int row = rows - 1; row >= 0; row--) {
+            // pixmap rows run top down, grid rows bottom up
+            int offset = row * columns;
+            for (int column = 0; column < columns; column++) {
+                float value = max > 0 ? density[offset + column] / max : 0;
+                putColor(pixels, value);
+            }
+        }
+        pixels.flip();
+
+        if (texture == null) {
+            texture = new Texture(pixmap);
+            texture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
+        } else {
+            texture.draw(pixmap, 0, 0);
+        }
+    }
+
+    /**
+     * Blue through green and yellow to red, fading in from transparent.
+     */
+    private static void putColor(ByteBuffer pixels, float value) {
+        float r;
+        float g;
+        float b;
+        if (value < 1 / 3f) {
+            float t = value * 3;
+            r = 0;
+            g = t;
+            b = 1 - t;
+        } else if (value < 2 / 3f) {
+            float t = value * 3 - 1;
+            r = t;
+            g = 1;
+            b = 0;
+        } else {
+            float t = value * 3 - 2;
+            r = 1;
+            g = 1 - t;
+            b = 0;
+        }
+        float a = Math.min(1, value * 4) * MAX_ALPHA;
+        pixels.put((byte) (r * 255));
+        pixels.put((byte) (g * 255));
+        pixels.put((byte) (b * 255));
+        pixels.put((byte) (a * 255));
+    }
+
+    private static float[] gaussianKernel(int radius) {
+        float[] kernel = new float[radius * 2 + 1];
+        float sigma = radius / 2f;
+        float sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            float weight = (float) Math.exp(-(i * i) / (2 * sigma * sigma));
+            kernel[i + radius] = weight;
+            sum += weight;
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= sum;
+        }
+        return kernel;
+    }
+
+    /**
+     * @return projection version the heatmap was built for, build it again if the projection changed
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Draws the heatmap. The batch has to be begun.
+     *
+     * @param batch
+     */
+    public void draw(Batch batch) {
+        if (texture != null && width > 0) {
+            batch.draw(texture, x, y, width, height);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (pixmap != null) {
+            pixmap.dispose();
+            pixmap = null;
+        }
+        if (texture != null) {
+            texture.dispose();
+            texture = null;
+        }
+    }
+}
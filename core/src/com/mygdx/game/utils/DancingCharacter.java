@@ -16,6 +16,8 @@ public class DancingCharacter {
     private Image image;
     private float stateTime;
     private ParticleEffect particleEffect;
+    private double latitude;
+    private double longitude;
 
     public void setParticleEffect(ParticleEffect particleEffect) {
         this.particleEffect = particleEffect;
@@ -41,6 +43,8 @@ public class DancingCharacter {
             }
         }
 
+        latitude = institutionLatitude;
+        longitude = institutionLongitude;
         animation = new Animation<TextureRegion>(0.2f, frames);
         stateTime = 0f;
         Vector2 initialPosition = MapRasterTiles.getPixelPositionFloat(institutionLatitude, institutionLongitude, beginTileX, beginTileY);
@@ -58,6 +62,14 @@ public class DancingCharacter {
         return image;
     }
 
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
     public float getX() {
         return image.getX();
     }
@@ -0,0 +1,74 @@
+package com.mygdx.game.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Tile provider reading tiles from a local z/x/y directory tree, e.g. {@code tiles/15/17806/11583.png}.
+ * Tiles are not copied into the persistent tile store, they are read from disk every time they are
+ * not in memory.
+ */
+public class DirectoryTileProvider implements TileProvider {
+    private final File root;
+    private final int tileSize;
+    private final String format;
+
+    /**
+     * @param root     directory holding the zoom directories
+     * @param tileSize
+     * @param format   file extension of the tiles without the dot
+     */
+    public DirectoryTileProvider(File root, int tileSize, String format) {
+        this.root = root;
+        this.tileSize = tileSize;
+        this.format = format;
+    }
+
+    public File getTileFile(int zoom, int x, int y) {
+        return new File(root, zoom + File.separator + x + File.separator + y + "." + format);
+    }
+
+    @Override
+    public String getName() {
+        return "dir-" + root.getName();
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public TileHttpClient.Response getTile(int zoom, int x, int y, String etag, String lastModified) throws IOException {
+        File file = getTileFile(zoom, x, y);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No tile " + zoom + "/" + x + "/" + y + " in " + root);
+        }
+        byte[] bytes = new byte[(int) file.length()];
+        try (InputStream is = new FileInputStream(file)) {
+            int read = 0;
+            int n;
+            while (read < bytes.length && (n = is.read(bytes, read, bytes.length - read)) > 0) {
+                read += n;
+            }
+            if (read < bytes.length) {
+                throw new IOException("Tile " + file + " was truncated while reading");
+            }
+        }
+        return new TileHttpClient.Response(HttpURLConnection.HTTP_OK, bytes, null, null, -1);
+    }
+}
@@ -0,0 +1,70 @@
+package com.mygdx.game.utils;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Tile provider for slippy map tile APIs, fetched through the shared {@link TileHttpClient}.
+ * The URL template contains {z}, {x} and {y} placeholders.
+ */
+public class HttpTileProvider implements TileProvider {
+    private final String name;
+    private final String urlTemplate;
+    private final int tileSize;
+    private final String format;
+
+    public HttpTileProvider(String name, String urlTemplate, int tileSize, String format) {
+        this.name = name;
+        this.urlTemplate = urlTemplate;
+        this.tileSize = tileSize;
+        this.format = format;
+    }
+
+    //Geoapify
+    //https://www.geoapify.com/get-started-with-maps-api
+    //@2x means it returns higher DPI version of the image and the image size is 512px (otherwise it is 256px)
+    public static HttpTileProvider geoapify(String tilesetId) {
+        return new HttpTileProvider("geoapify-" + tilesetId,
+                "https://maps.geoapify.com/v1/tile/" + tilesetId + "/{z}/{x}/{y}@2x.png?&apiKey=" + Keys.GEOAPIFY, 512, "png");
+    }
+
+    //Mapbox
+    //https://docs.mapbox.com/api/maps/raster-tiles/
+    public static HttpTileProvider mapbox(String tilesetId) {
+        return new HttpTileProvider("mapbox-" + tilesetId,
+                "https://api.mapbox.com/v4/" + tilesetId + "/{z}/{x}/{y}@2x.jpg90?access_token=" + Keys.MAPBOX, 512, "jpg");
+    }
+
+    public URL getTileUrl(int zoom, int x, int y) throws MalformedURLException {
+        return new URL(urlTemplate
+                .replace("{z}", String.valueOf(zoom))
+                .replace("{x}", String.valueOf(x))
+                .replace("{y}", String.valueOf(y)));
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    @Override
+    public TileHttpClient.Response getTile(int zoom, int x, int y, String etag, String lastModified) throws IOException {
+        return TileHttpClient.getDefault().get(getTileUrl(zoom, x, y), etag, lastModified);
+    }
+}
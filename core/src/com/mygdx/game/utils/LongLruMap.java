@@ -0,0 +1,149 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Least recently used map with primitive long keys.
+ * <p>
+ * Entries live in a {@link LongMap} and are chained into a doubly linked list from least to most
+ * recently used. Lookups and reordering do not allocate, and the nodes of removed entries are reused
+ * by later puts. Not thread safe.
+ *
+ * @param <V>
+ */
+class LongLruMap<V> {
+    private static class Node<V> {
+        long key;
+        V value;
+        Node<V> previous;
+        Node<V> next;
+    }
+
+    private final LongMap<Node<V>> nodes;
+    // least and most recently used entries
+    private Node<V> eldest;
+    private Node<V> newest;
+    // removed nodes, chained through next
+    private Node<V> freeNodes;
+
+    LongLruMap(int initialCapacity) {
+        nodes = new LongMap<>(initialCapacity);
+    }
+
+    /**
+     * Returns the value and marks it as most recently used.
+     *
+     * @param key
+     * @return value or null if there is none
+     */
+    V get(long key) {
+        Node<V> node = nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        moveToNewest(node);
+        return node.value;
+    }
+
+    boolean containsKey(long key) {
+        return nodes.containsKey(key);
+    }
+
+    /**
+     * Stores the value as most recently used.
+     *
+     * @param key
+     * @param value
+     * @return the replaced value or null
+     */
+    V put(long key, V value) {
+        Node<V> node = nodes.get(key);
+        if (node != null) {
+            V previous = node.value;
+            node.value = value;
+            moveToNewest(node);
+            return previous;
+        }
+
+        node = freeNodes;
+        if (node != null) {
+            freeNodes = node.next;
+        } else {
+            node = new Node<>();
+        }
+        node.key = key;
+        node.value = value;
+        linkNewest(node);
+        nodes.put(key, node);
+        return null;
+    }
+
+    V remove(long key) {
+        Node<V> node = nodes.remove(key);
+        return node != null ? release(node) : null;
+    }
+
+    /**
+     * Removes the least recently used entry.
+     *
+     * @return its value or null if the map is empty
+     */
+    V removeEldest() {
+        if (eldest == null) {
+            return null;
+        }
+        nodes.remove(eldest.key);
+        return release(eldest);
+    }
+
+    int size() {
+        return nodes.size;
+    }
+
+    void clear() {
+        while (eldest != null) {
+            removeEldest();
+        }
+    }
+
+    private void moveToNewest(Node<V> node) {
+        if (node != newest) {
+            unlink(node);
+            linkNewest(node);
+        }
+    }
+
+    private void linkNewest(Node<V> node) {
+        node.previous = newest;
+        node.next = null;
+        if (newest != null) {
+            newest.next = node;
+        } else {
+            eldest = node;
+        }
+        newest = node;
+    }
+
+    private void unlink(Node<V> node) {
+        if (node.previous != null) {
+            node.previous.next = node.next;
+        } else {
+            eldest = node.next;
+        }
+        if (node.next != null) {
+            node.next.previous = node.previous;
+        } else {
+            newest = node.previous;
+        }
+    }
+
+    private V release(Node<V> node) {
+        unlink(node);
+        V value = node.value;
+        node.value = null;
+        node.previous = null;
+        node.next = freeNodes;
+        freeNodes = node;
+        return value;
+    }
+}
@@ -1,26 +1,14 @@
 package com.mygdx.game.utils;
 
-import static com.mygdx.game.utils.MapRasterTiles.fetchTile;
-
-import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 public class MainT {
 
-    static String mapServiceUrl = "https://maps.geoapify.com/v1/tile/";
-    static String token = "?&apiKey=" + Keys.GEOAPIFY;
-    static String tilesetId = "dark-matter-purple-roads";
-    static String format = "@2x.png";
+    static TileProvider tileProvider = HttpTileProvider.geoapify("dark-matter-purple-roads");
 
     public static void main(String[] args) throws IOException {
-        URL url = new URL(mapServiceUrl + tilesetId + "/" + 15 + "/" + 17806 + "/" + 11583 + format + token);
-        ByteArrayOutputStream bis = fetchTile(url);
-
-        writeBytesToFile("test.png", bis.toByteArray());
+        writeBytesToFile("test.png", tileProvider.getTile(15, 17806, 11583, null, null).body);
     }
 
     private static void writeBytesToFile(String fileOutput, byte[] bytes)
@@ -31,16 +19,4 @@ public class MainT {
         }
 
     }
-
-    public static ByteArrayOutputStream fetchTile(URL url) throws IOException {
-        ByteArrayOutputStream bis = new ByteArrayOutputStream();
-        InputStream is = url.openStream();
-        byte[] bytebuff = new byte[4096];
-        int n;
-
-        while ((n = is.read(bytebuff)) > 0) {
-            bis.write(bytebuff, 0, n);
-        }
-        return bis;
-    }
 }
@@ -0,0 +1,196 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Web Mercator projection from geolocation to map pixel coordinates for a fixed zoom and top left tile.
+ * <p>
+ * The world size and origin are computed once in the constructor, projecting does not allocate.
+ * Results are the same as {@link MapRasterTiles#getPixelPosition(double, double, int, int, int, int, int)}:
+ * whole pixels, y growing upwards from the bottom of a map of the given height.
+ * <p>
+ * x is linear in longitude, only y needs sin and log. For data close to the map, {@link #linearize}
+ * replaces that with a second-order Taylor expansion of Mercator around the middle of an extent, i.e.
+ * two multiply-adds per point. It is only enabled if its maximum error over the extent stays below a
+ * threshold, and points outside the extent still use the exact formula.
+ */
+public class MapProjection {
+    private static final double FOUR_PI = 4 * Math.PI;
+    public static final double DEFAULT_MAX_LINEAR_ERROR = 0.25;
+    // samples used to measure the error of the expansion over its extent
+    private static final int ERROR_SAMPLES = 64;
+
+    private final int zoom;
+    private final int tileSize;
+    // size of the whole world in pixels at this zoom
+    private final double worldSize;
+    // pixel position of the top left corner of the first tile
+    private final double originX;
+    private final double originY;
+    private final int height;
+
+    // second-order expansion of the world y around linearLat, used between linearMinLat and linearMaxLat
+    private boolean linearized;
+    private double linearLat;
+    private double linearMinLat;
+    private double linearMaxLat;
+    private double linearY;
+    private double linearA1;
+    private double linearA2;
+    private double linearError;
+
+    /**
+     * @param tileSize
+     * @param zoom
+     * @param beginTileX x (tile number) of top left tile, may be fractional
+     * @param beginTileY y (tile number) of top left tile, may be fractional
+     * @param height     map height in pixels
+     */
+    public MapProjection(int tileSize, int zoom, float beginTileX, float beginTileY, int height) {
+        this.zoom = zoom;
+        this.tileSize = tileSize;
+        this.worldSize = tileSize * Math.pow(2, zoom);
+        this.originX = beginTileX * tileSize;
+        this.originY = beginTileY * tileSize;
+        this.height = height;
+    }
+
+    /**
+     * Projection of the map drawn by {@link com.mygdx.game.EMBMap}: {@link MapRasterTiles#TILE_SIZE} tiles
+     * at {@link Constants#ZOOM}, {@link Constants#MAP_HEIGHT} pixels high.
+     *
+     * @param beginTile top left tile
+     * @return
+     */
+    public static MapProjection forMap(ZoomXY beginTile) {
+        return new MapProjection(MapRasterTiles.TILE_SIZE, Constants.ZOOM, beginTile.x, beginTile.y, Constants.MAP_HEIGHT);
+    }
+
+    public float projectX(double lng) {
+        return (int) (Math.floor(worldSize * (0.5 + lng / 360)) - originX);
+    }
+
+    public float projectY(double lat) {
+        double worldY;
+        if (linearized && lat >= linearMinLat && lat <= linearMaxLat) {
+            double d = lat - linearLat;
+            worldY = linearY + d * (linearA1 + d * linearA2);
+        } else {
+            worldY = getWorldY(lat);
+        }
+        return height - (int) (Math.floor(worldY) - originY - 1);
+    }
+
+    private double getWorldY(double lat) {
+        double siny = Math.sin((lat * Math.PI) / 180);
+        // Truncating to 0.9999 effectively limits latitude to 89.189. This is
+        // about a third of a tile past the edge of the world tile.
+        siny = Math.min(Math.max(siny, -0.9999), 0.9999);
+        return worldSize * (0.5 - Math.log((1 + siny) / (1 - siny)) / FOUR_PI);
+    }
+
+    private double getLat(double worldY) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * worldY / worldSize))));
+    }
+
+    /**
+     * Linearizes the projection over the latitudes covered by the map, see {@link #linearize(double, double, double)}.
+     *
+     * @param maxError
+     * @return
+     */
+    public double linearize(double maxError) {
+        return linearize(getLat(originY + height), getLat(originY), maxError);
+    }
+
+    /**
+     * Replaces the exact Mercator y between minLat and maxLat by its second-order expansion around the
+     * middle latitude, if the largest difference over that range is at most maxError pixels. Otherwise
+     * the exact formula stays in use. Since positions are floored to whole pixels, a point within
+     * maxError of a pixel edge can still land one pixel off.
+     *
+     * @param minLat
+     * @param maxLat
+     * @param maxError max error in pixels, e.g. {@link #DEFAULT_MAX_LINEAR_ERROR}
+     * @return max error of the expansion over the range in pixels
+     */
+    public double linearize(double minLat, double maxLat, double maxError) {
+        double lat = (minLat + maxLat) / 2;
+        double phi = Math.toRadians(lat);
+        double sec = 1 / Math.cos(phi);
+        // y = worldSize * (0.5 - atanh(sin(phi)) / (2 pi)), d/dphi atanh(sin(phi)) = sec(phi),
+        // d2/dphi2 = sec(phi) tan(phi); coefficients are per degree
+        double radiansPerDegree = Math.PI / 180;
+        double scale = -worldSize / (2 * Math.PI);
+        linearLat = lat;
+        linearMinLat = minLat;
+        linearMaxLat = maxLat;
+        linearY = getWorldY(lat);
+        linearA1 = scale * sec * radiansPerDegree;
+        linearA2 = scale * 0.5 * sec * Math.tan(phi) * radiansPerDegree * radiansPerDegree;
+
+        double error = 0;
+        for (int i = 0; i <= ERROR_SAMPLES; i++) {
+            double sampleLat = minLat + (maxLat - minLat) * i / ERROR_SAMPLES;
+            double d = sampleLat - lat;
+            error = Math.max(error, Math.abs(linearY + d * (linearA1 + d * linearA2) - getWorldY(sampleLat)));
+        }
+        linearError = error;
+        linearized = error <= maxError;
+        return error;
+    }
+
+    /**
+     * Goes back to the exact formula for all points.
+     */
+    public void setExact() {
+        linearized = false;
+    }
+
+    public boolean isLinearized() {
+        return linearized;
+    }
+
+    /**
+     * @return max error in pixels measured by the last {@link #linearize} call
+     */
+    public double getLinearError() {
+        return linearError;
+    }
+
+    /**
+     * Projects a single point into a caller owned vector.
+     *
+     * @param lat
+     * @param lng
+     * @param out
+     * @return out
+     */
+    public Vector2 project(double lat, double lng, Vector2 out) {
+        return out.set(projectX(lng), projectY(lat));
+    }
+
+    /**
+     * Projects count points into caller owned arrays.
+     *
+     * @param lat
+     * @param lng
+     * @param outX
+     * @param outY
+     * @param count
+     */
+    public void project(double[] lat, double[] lng, float[] outX, float[] outY, int count) {
+        for (int i = 0; i < count; i++) {
+            outX[i] = projectX(lng[i]);
+            outY[i] = projectY(lat[i]);
+        }
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+}
@@ -2,58 +2,140 @@ package com.mygdx.game.utils;
 
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.Vector2;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class MapRasterTiles {
-    //Mapbox
-    //https://docs.mapbox.com/api/maps/raster-tiles/
-    /*static String mapServiceUrl = "https://api.mapbox.com/v4/";
-    static String token = "?access_token=" + Keys.MAPBOX;
-    static String tilesetId = "mapbox.satellite";
-    static String format = "@2x.jpg90";*/
-
-    //Geoapify
-    //https://www.geoapify.com/get-started-with-maps-api
-    static String mapServiceUrl = "https://maps.geoapify.com/v1/tile/";
-    static String token = "?&apiKey=" + Keys.GEOAPIFY;
-    static String tilesetId = "maptiler-3d";
-    static String format = "@2x.png";
-
-    //@2x in format means it returns higher DPI version of the image and the image size is 512px (otherwise it is 256px)
+    // e.g. HttpTileProvider.mapbox("mapbox.satellite")
+    private static final TileProvider DEFAULT_TILE_PROVIDER = HttpTileProvider.geoapify("maptiler-3d");
+
+    // size of a tile in world units, tiles of providers with another pixel size are scaled to it
     final static public int TILE_SIZE = 512;
-    private static final String CACHE_FILE_PATH = "tile_cache.dat";
-    private static Map<String, byte[]> tileCache = new ConcurrentHashMap<>();
+    private static final String CACHE_FILE_PATH = "tile_cache";
+    private static final String LEGACY_CACHE_FILE_PATH = "tile_cache.dat";
+    // keys of the legacy cache are zoom_x_y followed by this
+    private static final String LEGACY_KEY_SUFFIX = "@2x.png";
+    private static volatile TileProvider tileProvider = DEFAULT_TILE_PROVIDER;
+    private static volatile TilePersister tilePersister;
+    private static TileLoader tileLoader;
+    private static TileCache tileCache;
+    private static TileUploader tileUploader;
+    // fetches in progress, shared by concurrent callers asking for the same tile
+    private static final ConcurrentHashMap<Long, FutureTask<byte[]>> inFlightTiles = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Long, Boolean> revalidatingTiles = new ConcurrentHashMap<>();
+    private static long maxTextureBytes = TileCache.DEFAULT_TEXTURE_BYTES;
+    private static long maxTileBytes = TileCache.DEFAULT_TILE_BYTES;
 
+    /**
+     * Sets where tiles come from. Has to be called before {@link #loadTileCache()}.
+     *
+     * @param provider
+     */
+    public static void setTileProvider(TileProvider provider) {
+        tileProvider = provider;
+    }
+
+    public static TileProvider getTileProvider() {
+        return tileProvider;
+    }
+
+    /**
+     * Opens the persistent tile store of the current tile provider, local providers do not need one.
+     * Tiles of the default provider stored by older versions are taken over once.
+     * <p>
+     * The store is opened in the background by its {@link TilePersister}, so this returns right away.
+     */
     public static void loadTileCache() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(CACHE_FILE_PATH))) {
-            tileCache = (Map<String, byte[]>) ois.readObject();
-            System.out.println("Tile Cache Loaded: " + tileCache);
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Error loading tile cache: " + e.getMessage());
+        TileProvider provider = tileProvider;
+        if (!provider.isRemote()) {
+            System.out.println("Serving tiles from " + provider.getName() + ", no tile cache needed");
+            return;
+        }
+        String path = CACHE_FILE_PATH + "_" + provider.getName();
+        if (provider == DEFAULT_TILE_PROVIDER) {
+            adoptUnnamedTileCache(path);
+        }
+        final TilePersister store = new TilePersister(path);
+        tilePersister = store;
+        if (provider == DEFAULT_TILE_PROVIDER && new File(LEGACY_CACHE_FILE_PATH).exists()) {
+            getTileLoader().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (store.awaitOpen() && store.size() == 0) {
+                        try {
+                            importLegacyTileCache(store);
+                        } catch (IOException e) {
+                            System.out.println("Error importing legacy tile cache: " + e.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Renames the store files from before there were providers, they hold tiles of the default one.
+     */
+    private static void adoptUnnamedTileCache(String path) {
+        File pack = new File(CACHE_FILE_PATH + ".pack");
+        File index = new File(CACHE_FILE_PATH + ".idx");
+        if (pack.exists() && index.exists() && !new File(path + ".pack").exists()) {
+            if (!pack.renameTo(new File(path + ".pack")) || !index.renameTo(new File(path + ".idx"))) {
+                System.out.println("Error renaming tile cache to " + path);
+            }
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static void importLegacyTileCache(TilePersister store) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(LEGACY_CACHE_FILE_PATH))) {
+            Map<String, byte[]> legacyCache = (Map<String, byte[]>) ois.readObject();
+            for (Map.Entry<String, byte[]> entry : legacyCache.entrySet()) {
+                String[] parts = entry.getKey().replace(LEGACY_KEY_SUFFIX, "").split("_");
+                // unknown age, the tile is revalidated the next time it is used
+                store.put(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), entry.getValue(), new TileMetadata(null, null, 0, 0));
+            }
+            System.out.println("Imported " + legacyCache.size() + " tiles from " + LEGACY_CACHE_FILE_PATH);
+        } catch (ClassNotFoundException | RuntimeException e) {
+            System.out.println("Error importing legacy tile cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the persistent tile store without blocking. Tiles are journaled as they are fetched, the
+     * persister compacts the journal into the store and closes it in the background.
+     */
     public static void saveTileCache() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(CACHE_FILE_PATH))) {
-            oos.writeObject(tileCache);
-            System.out.println("Tile Cache Saved: " + tileCache);
-        } catch (IOException e) {
-            System.out.println("Error saving tile cache: " + e.getMessage());
+        if (tilePersister == null) {
+            return;
         }
+        tilePersister.close();
     }
 
+    /**
+     * Waits for {@link #saveTileCache()} to finish, e.g. in a shutdown hook that must not return early.
+     *
+     * @param timeoutMillis
+     * @return false if the store is not closed in time
+     */
+    public static boolean awaitTileCacheSaved(long timeoutMillis) {
+        TilePersister store = tilePersister;
+        return store == null || store.awaitClosed(timeoutMillis);
+    }
 
     /**
      * Get raster tile based on zoom and tile number.
@@ -64,35 +146,242 @@ public class MapRasterTiles {
      * @return
      * @throws IOException
      */
-    // Modify the method to store byte[] instead of Texture
     public static Texture getRasterTile(int zoom, int x, int y) throws IOException {
-        String tileKey = getTileKey(zoom, x, y);
+        Texture texture = getTileCache().getTexture(zoom, x, y);
+        if (texture == null) {
+            texture = getTexture(getRasterTileBytes(zoom, x, y));
+            getTileCache().putTexture(zoom, x, y, texture);
+        }
+        return texture;
+    }
+
+    /**
+     * Get encoded raster tile bytes from the cache, fetching and caching them on a miss.
+     * Safe to call from worker threads, concurrent calls for the same tile share a single fetch.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return
+     * @throws IOException
+     */
+    public static byte[] getRasterTileBytes(final int zoom, final int x, final int y) throws IOException {
+        byte[] pixelData = getTileCache().getTile(zoom, x, y);
+        if (pixelData != null) {
+            return pixelData;
+        }
+
+        Long tileKey = TileKey.of(zoom, x, y);
+        FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return loadRasterTileBytes(zoom, x, y);
+            }
+        });
+        FutureTask<byte[]> inFlight = inFlightTiles.putIfAbsent(tileKey, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                inFlightTiles.remove(tileKey, task);
+            }
+        }
 
-        if (tileCache.containsKey(tileKey)) {
-            byte[] pixelData = tileCache.get(tileKey);
-            return getTexture(pixelData);
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for tile " + TileKey.toString(tileKey), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error loading tile " + TileKey.toString(tileKey), e.getCause());
         }
+    }
 
-        URL url = new URL(mapServiceUrl + tilesetId + "/" + zoom + "/" + x + "/" + y + format + token);
-        ByteArrayOutputStream bis = fetchTile(url);
-        byte[] pixelData = bis.toByteArray();
-        Texture texture = getTexture(pixelData);
+    private static byte[] loadRasterTileBytes(int zoom, int x, int y) throws IOException {
+        TileCache cache = getTileCache();
+        TilePersister store = tilePersister;
+        byte[] pixelData = store != null ? store.get(zoom, x, y) : null;
+        if (pixelData != null) {
+            pixelData = cache.putTile(zoom, x, y, pixelData);
+            // stale tiles are still served, the fresh copy is fetched in the background
+            TileMetadata metadata = store.getMetadata(zoom, x, y);
+            if (metadata != null && metadata.isExpired()) {
+                revalidateLater(zoom, x, y);
+            }
+            return pixelData;
+        }
 
-        tileCache.put(tileKey, pixelData);
+        TileHttpClient.Response response = tileProvider.getTile(zoom, x, y, null, null);
+        pixelData = response.body;
 
-        return texture;
+        if (store != null) {
+            store.put(zoom, x, y, pixelData, TileMetadata.fetchedNow(response.etag, response.lastModified, response.maxAge));
+        }
+        return cache.putTile(zoom, x, y, pixelData);
+    }
+
+    private static void revalidateLater(final int zoom, final int x, final int y) {
+        final Long tileKey = TileKey.of(zoom, x, y);
+        if (revalidatingTiles.putIfAbsent(tileKey, Boolean.TRUE) != null) {
+            return;
+        }
+        getTileLoader().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    revalidateTile(zoom, x, y);
+                } catch (IOException e) {
+                    System.out.println("Error revalidating tile " + TileKey.toString(tileKey) + ": " + e.getMessage());
+                } finally {
+                    revalidatingTiles.remove(tileKey);
+                }
+            }
+        });
+    }
+
+    /**
+     * Revalidates a stored tile with a conditional request. A 304 response only refreshes the stored
+     * metadata; new content replaces the stored tile and, on the render thread, its uploaded texture.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @throws IOException
+     */
+    public static void revalidateTile(final int zoom, final int x, final int y) throws IOException {
+        TilePersister store = tilePersister;
+        TileMetadata metadata = store != null ? store.getMetadata(zoom, x, y) : null;
+        if (metadata == null) {
+            return;
+        }
+
+        TileHttpClient.Response response = tileProvider.getTile(zoom, x, y, metadata.etag, metadata.lastModified);
+        if (response.isNotModified()) {
+            // a 304 does not have to repeat the validators
+            store.updateMetadata(zoom, x, y, TileMetadata.fetchedNow(
+                    response.etag != null ? response.etag : metadata.etag,
+                    response.lastModified != null ? response.lastModified : metadata.lastModified,
+                    response.maxAge));
+            return;
+        }
+
+        store.put(zoom, x, y, response.body, TileMetadata.fetchedNow(response.etag, response.lastModified, response.maxAge));
+        getTileCache().putTile(zoom, x, y, response.body);
+
+        getTileUploader().enqueueReplacement(new ZoomXY(zoom, x, y), TileHash.of(response.body), new Pixmap(response.body, 0, response.body.length));
     }
 
-    private static String getTileKey(int zoom, int x, int y) {
-        return zoom + "_" + x + "_" + y + format;
+    public static TileLoader getTileLoader() {
+        synchronized (MapRasterTiles.class) {
+            if (tileLoader == null) {
+                tileLoader = new TileLoader(TileLoader.DEFAULT_THREADS);
+            }
+            return tileLoader;
+        }
+    }
+
+    /**
+     * Returns the uploader that turns tiles decoded by the workers into textures. Its
+     * {@link TileUploader#update()} has to be called once per frame.
+     *
+     * @return
+     */
+    public static TileUploader getTileUploader() {
+        synchronized (MapRasterTiles.class) {
+            if (tileUploader == null) {
+                tileUploader = new TileUploader(TileUploader.DEFAULT_MAX_UPLOADS_PER_FRAME, TileUploader.DEFAULT_FRAME_BUDGET_NANOS);
+            }
+            return tileUploader;
+        }
+    }
+
+    /**
+     * Returns the in-memory tile cache. Textures returned by it are owned by the cache and disposed
+     * when evicted.
+     *
+     * @return
+     */
+    public static TileCache getTileCache() {
+        synchronized (MapRasterTiles.class) {
+            if (tileCache == null) {
+                tileCache = new TileCache(maxTextureBytes, maxTileBytes);
+            }
+            return tileCache;
+        }
+    }
+
+    /**
+     * Sets the memory budgets of the in-memory tile cache, e.g. smaller ones on Android.
+     *
+     * @param textureBytes GPU bytes for uploaded tile textures
+     * @param tileBytes    heap bytes for encoded tiles
+     */
+    public static void setCacheLimits(long textureBytes, long tileBytes) {
+        synchronized (MapRasterTiles.class) {
+            maxTextureBytes = textureBytes;
+            maxTileBytes = tileBytes;
+            if (tileCache != null) {
+                tileCache.setLimits(textureBytes, tileBytes);
+            }
+        }
+    }
+
+    public static void dispose() {
+        synchronized (MapRasterTiles.class) {
+            if (tileLoader != null) {
+                tileLoader.dispose();
+                tileLoader = null;
+            }
+            if (tileUploader != null) {
+                tileUploader.dispose();
+                tileUploader = null;
+            }
+            if (tileCache != null) {
+                tileCache.dispose();
+                tileCache = null;
+            }
+        }
     }
 
     private static Texture getTexture(byte[] pixelData) {
-        return new Texture(new Pixmap(pixelData, 0, pixelData.length));
+        Pixmap pixmap = new Pixmap(pixelData, 0, pixelData.length);
+        Texture texture = new Texture(pixmap);
+        // the texture keeps its own copy on the GPU
+        pixmap.dispose();
+        return texture;
+    }
+
+    /**
+     * Checks if the tile is in the persistent tile store, without fetching it. Waits for the store to
+     * open, so not for the render thread.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return
+     */
+    public static boolean isTileStored(int zoom, int x, int y) {
+        TilePersister store = tilePersister;
+        return store != null && store.contains(zoom, x, y);
     }
 
     public static int getTileCacheSize() {
-        return tileCache.size();
+        TilePersister store = tilePersister;
+        return store != null ? store.size() : 0;
+    }
+
+    /**
+     * Returns how much the persistent tile store saves by storing identical tiles once.
+     *
+     * @return stored tile bytes per byte on disk, 1 if nothing is shared or the store is not open
+     */
+    public static double getTileCacheDedupRatio() {
+        TilePersister store = tilePersister;
+        return store != null ? store.getDedupRatio() : 1;
     }
 
     /**
@@ -103,9 +392,8 @@ public class MapRasterTiles {
      * @throws IOException
      */
     public static Texture getRasterTile(String zoomXY) throws IOException {
-        URL url = new URL(mapServiceUrl + tilesetId + "/" + zoomXY + format + token);
-        ByteArrayOutputStream bis = fetchTile(url);
-        return getTexture(bis.toByteArray());
+        String[] parts = zoomXY.split("/");
+        return getRasterTile(new ZoomXY(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
     }
 
     /**
@@ -116,13 +404,13 @@ public class MapRasterTiles {
      * @throws IOException
      */
     public static Texture getRasterTile(ZoomXY zoomXY) throws IOException {
-        URL url = new URL(mapServiceUrl + tilesetId + "/" + zoomXY.toString() + format + token);
-        ByteArrayOutputStream bis = fetchTile(url);
-        return getTexture(bis.toByteArray());
+        return getTexture(tileProvider.getTile(zoomXY.zoom, zoomXY.x, zoomXY.y, null, null).body);
     }
 
     /**
      * Returns tiles for the area of size * size of provided center tile.
+     * Missing tiles are fetched in parallel, textures are created on the calling thread and owned
+     * by the tile cache.
      *
      * @param zoomXY center tile
      * @param size
@@ -130,55 +418,81 @@ public class MapRasterTiles {
      * @throws IOException
      */
     public static Texture[] getRasterTileZone(ZoomXY zoomXY, int size) throws IOException {
-        Texture[] array = new Texture[size * size];
-        int[] factorY = new int[size * size];
-        int[] factorX = new int[size * size];
+        ZoomXY[] tiles = getZoneTiles(zoomXY, size);
+        List<Future<byte[]>> futures = new ArrayList<>(tiles.length);
+        for (ZoomXY tile : tiles) {
+            futures.add(getTileLoader().fetch(tile.zoom, tile.x, tile.y));
+        }
 
-        int value = (size - 1) / -2;
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                factorY[i * size + j] = value;
-                factorX[i + j * size] = value;
+        Texture[] array = new Texture[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            try {
+                array[i] = getTileCache().getTexture(tiles[i].zoom, tiles[i].x, tiles[i].y);
+                if (array[i] == null) {
+                    array[i] = getTexture(futures.get(i).get());
+                    getTileCache().putTexture(tiles[i].zoom, tiles[i].x, tiles[i].y, array[i]);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching tile " + tiles[i], e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error fetching tile " + tiles[i], e.getCause());
             }
-            value++;
         }
+        return array;
+    }
 
-        for (int i = 0; i < size * size; i++) {
-            String tileKey = getTileKey(zoomXY.zoom, zoomXY.x + factorX[i], zoomXY.y + factorY[i]);
-
-            System.out.println("Tile Key: " + tileKey);
-
-            System.out.println("Adjusted Coordinates: " + (zoomXY.x + factorX[i]) + ", " + (zoomXY.y + factorY[i]));
-
-            if (tileCache.containsKey(tileKey)) {
-                byte[] pixelData = tileCache.get(tileKey);
-                array[i] = getTexture(pixelData);
-                System.out.println("Tile " + tileKey + " retrieved from cache.");
+    /**
+     * Loads tiles for the area of size * size of provided center tile without blocking.
+     * Each tile is delivered to the callback on the render thread as soon as it is ready,
+     * tiles that are already uploaded are delivered before this method returns.
+     *
+     * @param zoomXY   center tile
+     * @param size
+     * @param callback
+     * @return futures of the tiles that were not uploaded yet
+     */
+    public static List<Future<byte[]>> getRasterTileZoneAsync(ZoomXY zoomXY, int size, TileCallback callback) {
+        ZoomXY[] tiles = getZoneTiles(zoomXY, size);
+        List<Future<byte[]>> futures = new ArrayList<>(tiles.length);
+        for (ZoomXY tile : tiles) {
+            TextureRegion region = getTileCache().getRegion(tile.zoom, tile.x, tile.y);
+            if (region != null) {
+                callback.tileLoaded(tile, region);
             } else {
-                array[i] = getRasterTile(zoomXY.zoom, zoomXY.x + factorX[i], zoomXY.y + factorY[i]);
-                System.out.println("Tile " + tileKey + " fetched from API.");
+                futures.add(getTileLoader().load(tile.zoom, tile.x, tile.y, callback));
             }
         }
-        return array;
+        return futures;
     }
 
     /**
-     * Gets tile from provided URL and returns it as ByteArrayOutputStream.
+     * Returns tile numbers for the area of size * size of provided center tile, row by row from the top left.
+     *
+     * @param zoomXY center tile
+     * @param size
+     * @return
+     */
+    private static ZoomXY[] getZoneTiles(ZoomXY zoomXY, int size) {
+        ZoomXY[] tiles = new ZoomXY[size * size];
+        int offset = (size - 1) / 2;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                tiles[i * size + j] = new ZoomXY(zoomXY.zoom, zoomXY.x + j - offset, zoomXY.y + i - offset);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Gets tile from provided URL through the shared {@link TileHttpClient}.
      *
      * @param url
      * @return
      * @throws IOException
      */
-    public static ByteArrayOutputStream fetchTile(URL url) throws IOException {
-        ByteArrayOutputStream bis = new ByteArrayOutputStream();
-        InputStream is = url.openStream();
-        byte[] bytebuff = new byte[4096];
-        int n;
-
-        while ((n = is.read(bytebuff)) > 0) {
-            bis.write(bytebuff, 0, n);
-        }
-        return bis;
+    public static byte[] fetchTile(URL url) throws IOException {
+        return TileHttpClient.getDefault().get(url);
     }
 
     /**
@@ -251,40 +565,17 @@ public class MapRasterTiles {
      * @param beginTileY y (tile number) of top left tile
      * @param height     viewport height
      * @return
+     * @see MapProjection for repeated projections without allocation
      */
     public static Vector2 getPixelPosition(double lat, double lng, int tileSize, int zoom, int beginTileX, int beginTileY, int height) {
-        double[] worldCoordinate = project(lat, lng, tileSize);
-        // Scale to fit our image
-        double scale = Math.pow(2, zoom);
-
-        // Apply scale to world coordinates to get image coordinates
-        return new Vector2(
-                (int) (Math.floor(worldCoordinate[0] * scale) - (beginTileX * tileSize)),
-                height - (int) (Math.floor(worldCoordinate[1] * scale) - (beginTileY * tileSize) - 1)
-        );
+        return new MapProjection(tileSize, zoom, beginTileX, beginTileY, height).project(lat, lng, new Vector2());
     }
 
     public static Vector2 getPixelPosition(double lat, double lng, int beginTileX, int beginTileY) {
-        double[] worldCoordinate = project(lat, lng, MapRasterTiles.TILE_SIZE);
-        // Scale to fit our image
-        double scale = Math.pow(2, Constants.ZOOM);
-
-        // Apply scale to world coordinates to get image coordinates
-        return new Vector2(
-                (int) (Math.floor(worldCoordinate[0] * scale) - (beginTileX * MapRasterTiles.TILE_SIZE)),
-                Constants.MAP_HEIGHT - (int) (Math.floor(worldCoordinate[1] * scale) - (beginTileY * MapRasterTiles.TILE_SIZE) - 1)
-        );
+        return getPixelPositionFloat(lat, lng, beginTileX, beginTileY);
     }
 
     public static Vector2 getPixelPositionFloat(double lat, double lng, float beginTileX, float beginTileY) {
-        double[] worldCoordinate = project(lat, lng, MapRasterTiles.TILE_SIZE);
-        // Scale to fit our image
-        double scale = Math.pow(2, Constants.ZOOM);
-
-        // Apply scale to world coordinates to get image coordinates
-        return new Vector2(
-                (int) (Math.floor(worldCoordinate[0] * scale) - (beginTileX * MapRasterTiles.TILE_SIZE)),
-                Constants.MAP_HEIGHT - (int) (Math.floor(worldCoordinate[1] * scale) - (beginTileY * MapRasterTiles.TILE_SIZE) - 1)
-        );
+        return new MapProjection(TILE_SIZE, Constants.ZOOM, beginTileX, beginTileY, Constants.MAP_HEIGHT).project(lat, lng, new Vector2());
     }
 }
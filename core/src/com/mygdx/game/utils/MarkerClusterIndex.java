@@ -0,0 +1,254 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Hierarchical grid clustering of map markers, one grid per zoom level.
+ * <p>
+ * Cells of a level are twice as large as those of the next finer one and nest exactly, so a point is
+ * in cell {@code (ix >> d, iy >> d)} of the level d steps coarser than the finest one. Every cell keeps
+ * the number of markers in it and the sum of their positions, so adding or removing a marker updates one
+ * cell per level, and a query only reads the cells in the viewport of one level. Markers themselves are
+ * only listed in the cells of the finest level.
+ *
+ * @param <T> type of the markers
+ */
+public class MarkerClusterIndex<T> {
+    private final int minLevel;
+    private final int maxLevel;
+    private final float finestCellSize;
+    // cells of each level, index 0 is minLevel
+    private final LongMap<Cell<T>>[] levels;
+    // position of every marker, needed to remove it
+    private final IdentityHashMap<T, float[]> positions = new IdentityHashMap<>();
+    private int modCount;
+
+    private static class Cell<T> {
+        int count;
+        double sumX;
+        double sumY;
+        // finest level only
+        Array<T> items;
+    }
+
+    /**
+     * Markers or groups of markers of one grid cell.
+     *
+     * @param <T>
+     */
+    public static class Cluster<T> {
+        // position of the marker, or the centroid of the markers of a cluster
+        public float x;
+        public float y;
+        public int count;
+        // the marker if count is 1, null for clusters
+        public T item;
+    }
+
+    /**
+     * @param minLevel       coarsest zoom level
+     * @param maxLevel       finest zoom level
+     * @param finestCellSize cell size of maxLevel in world units, it doubles with every coarser level
+     */
+    @SuppressWarnings("unchecked")
+    public MarkerClusterIndex(int minLevel, int maxLevel, float finestCellSize) {
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.finestCellSize = finestCellSize;
+        levels = new LongMap[maxLevel - minLevel + 1];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new LongMap<>();
+        }
+    }
+
+    /**
+     * Adds a marker, or moves it if it is already indexed.
+     *
+     * @param item
+     * @param x    world position of the marker
+     * @param y
+     */
+    public void add(T item, float x, float y) {
+        if (positions.containsKey(item)) {
+            remove(item);
+        }
+        positions.put(item, new float[]{x, y});
+        int cellX = finestCell(x);
+        int cellY = finestCell(y);
+        for (int level = minLevel; level <= maxLevel; level++) {
+            int shift = maxLevel - level;
+            LongMap<Cell<T>> cells = levels[level - minLevel];
+            long key = key(cellX >> shift, cellY >> shift);
+            Cell<T> cell = cells.get(key);
+            if (cell == null) {
+                cell = new Cell<>();
+                cells.put(key, cell);
+            }
+            cell.count++;
+            cell.sumX += x;
+            cell.sumY += y;
+            if (level == maxLevel) {
+                if (cell.items == null) {
+                    cell.items = new Array<>(false, 4);
+                }
+                cell.items.add(item);
+            }
+        }
+        modCount++;
+    }
+
+    /**
+     * @param item
+     * @return false if the marker was not indexed
+     */
+    public boolean remove(T item) {
+        float[] position = positions.remove(item);
+        if (position == null) {
+            return false;
+        }
+        float x = position[0];
+        float y = position[1];
+        int cellX = finestCell(x);
+        int cellY = finestCell(y);
+        for (int level = minLevel; level <= maxLevel; level++) {
+            int shift = maxLevel - level;
+            LongMap<Cell<T>> cells = levels[level - minLevel];
+            long key = key(cellX >> shift, cellY >> shift);
+            Cell<T> cell = cells.get(key);
+            if (--cell.count == 0) {
+                cells.remove(key);
+                continue;
+            }
+            cell.sumX -= x;
+            cell.sumY -= y;
+            if (level == maxLevel) {
+                cell.items.removeValue(item, true);
+            }
+        }
+        modCount++;
+        return true;
+    }
+
+    public void clear() {
+        for (LongMap<Cell<T>> cells : levels) {
+            cells.clear();
+        }
+        positions.clear();
+        modCount++;
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * @return changes with every add and remove, to tell if results derived from the index are stale
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Collects the clusters of a zoom level whose cells overlap the area. Cluster objects already in
+     * out are reused, the array ends up with exactly the clusters found.
+     *
+     * @param level zoom level, clamped to the levels of the index
+     * @param minX  area in world units
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @param out
+     */
+    public void query(int level, float minX, float minY, float maxX, float maxY, Array<Cluster<T>> out) {
+        level = Math.max(minLevel, Math.min(maxLevel, level));
+        int shift = maxLevel - level;
+        LongMap<Cell<T>> cells = levels[level - minLevel];
+        long cellMinX = (long) finestCell(minX) >> shift;
+        long cellMaxX = (long) finestCell(maxX) >> shift;
+        long cellMinY = (long) finestCell(minY) >> shift;
+        long cellMaxY = (long) finestCell(maxY) >> shift;
+
+        long columns = cellMaxX - cellMinX + 1;
+        long rows = cellMaxY - cellMinY + 1;
+
+        int found = 0;
+        // checked one by one, the product overflows for unbounded areas
+        if (columns <= cells.size && rows <= cells.size && columns * rows <= cells.size) {
+            for (long cellY = cellMinY; cellY <= cellMaxY; cellY++) {
+                for (long cellX = cellMinX; cellX <= cellMaxX; cellX++) {
+                    Cell<T> cell = cells.get(key((int) cellX, (int) cellY));
+                    if (cell != null) {
+                        set(obtain(out, found++), cell, level, (int) cellX, (int) cellY);
+                    }
+                }
+            }
+        } else {
+            // fewer cells than the area covers, walk them instead
+            for (LongMap.Entry<Cell<T>> entry : cells.entries()) {
+                int cellX = (int) (entry.key >> 32);
+                int cellY = (int) entry.key;
+                if (cellX >= cellMinX && cellX <= cellMaxX && cellY >= cellMinY && cellY <= cellMaxY) {
+                    set(obtain(out, found++), entry.value, level, cellX, cellY);
+                }
+            }
+        }
+        out.truncate(found);
+    }
+
+    private Cluster<T> obtain(Array<Cluster<T>> out, int index) {
+        if (index < out.size) {
+            return out.get(index);
+        }
+        Cluster<T> cluster = new Cluster<>();
+        out.add(cluster);
+        return cluster;
+    }
+
+    private void set(Cluster<T> cluster, Cell<T> cell, int level, int cellX, int cellY) {
+        cluster.count = cell.count;
+        if (cell.count == 1) {
+            cluster.item = findSingle(level, cellX, cellY);
+            float[] position = positions.get(cluster.item);
+            cluster.x = position[0];
+            cluster.y = position[1];
+        } else {
+            cluster.item = null;
+            cluster.x = (float) (cell.sumX / cell.count);
+            cluster.y = (float) (cell.sumY / cell.count);
+        }
+    }
+
+    /**
+     * Finds the only marker of a cell by following the non-empty child cells down to the finest level.
+     */
+    private T findSingle(int level, int cellX, int cellY) {
+        while (level < maxLevel) {
+            level++;
+            LongMap<Cell<T>> cells = levels[level - minLevel];
+            int childX = cellX << 1;
+            int childY = cellY << 1;
+            search:
+            for (int dy = 0; dy < 2; dy++) {
+                for (int dx = 0; dx < 2; dx++) {
+                    if (cells.containsKey(key(childX + dx, childY + dy))) {
+                        cellX = childX + dx;
+                        cellY = childY + dy;
+                        break search;
+                    }
+                }
+            }
+        }
+        return levels[maxLevel - minLevel].get(key(cellX, cellY)).items.first();
+    }
+
+    private int finestCell(float coordinate) {
+        return (int) Math.floor(coordinate / finestCellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
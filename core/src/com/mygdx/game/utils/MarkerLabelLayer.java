@@ -0,0 +1,225 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.BitmapFontCache;
+import com.badlogic.gdx.graphics.g2d.GlyphLayout;
+import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.utils.Drawable;
+import com.badlogic.gdx.scenes.scene2d.utils.TransformDrawable;
+import com.badlogic.gdx.utils.Align;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Name labels under (or above) the location markers, drawn like a {@link Label} of the given style.
+ * <p>
+ * The glyphs of every label are laid out once into its own {@link BitmapFontCache}; a frame only moves
+ * the caches to their markers and draws them, all labels in one pass after the markers. A label is
+ * laid out again only when its location's name changes or the camera crosses into another zoom bucket.
+ * The font is scaled per bucket so the labels keep about the size they have at the default zoom instead
+ * of growing and shrinking with the map.
+ */
+public class MarkerLabelLayer {
+    // labels of the default zoom bucket are drawn at the font's own size
+    public static final int DEFAULT_ZOOM_BUCKET = Constants.ZOOM - 1;
+    // distance from the bottom of the marker down to the bottom of a label below it, at font scale 1
+    private static final float LABEL_OFFSET = 40;
+    // gap between the top of the marker and a label above it, at font scale 1
+    private static final float LABEL_GAP = 4;
+
+    private final Label.LabelStyle style;
+    private final float markerSize;
+    private final Set<String> labelsAbove = new HashSet<>();
+    private final IdentityHashMap<Location, Entry> entries = new IdentityHashMap<>();
+    private final GlyphLayout layout = new GlyphLayout();
+
+    private static class Entry {
+        final BitmapFontCache cache;
+        String name;
+        int zoomBucket;
+        float scale;
+        boolean above;
+        float width;
+        float height;
+        // offset of the text inside the label
+        float textX;
+        float textY;
+
+        Entry(BitmapFont font) {
+            cache = font.newFontCache();
+        }
+    }
+
+    /**
+     * @param style      style of the labels, e.g. the skin's "title" label style
+     * @param markerSize width and height of the markers in world units
+     */
+    public MarkerLabelLayer(Label.LabelStyle style, float markerSize) {
+        this.style = style;
+        this.markerSize = markerSize;
+    }
+
+    /**
+     * Draws the labels of these locations above their markers instead of below.
+     *
+     * @param institutions
+     */
+    public void placeAbove(String... institutions) {
+        for (String institution : institutions) {
+            labelsAbove.add(institution);
+        }
+    }
+
+    /**
+     * Draws the labels of all locations. The batch has to be begun.
+     *
+     * @param batch
+     * @param locations
+     * @param projections map positions of the markers, keyed by location
+     * @param zoomBucket  slippy zoom level the map is drawn at
+     */
+    public void draw(Batch batch, List<Location> locations, ProjectionCache projections, int zoomBucket) {
+        for (int i = 0; i < locations.size(); i++) {
+            Location location = locations.get(i);
+            Geolocation geolocation = location.getGeolocation();
+            ProjectionCache.Position marker = projections.get(location, geolocation.lat, geolocation.lng);
+            draw(batch, location, marker.x, marker.y, zoomBucket);
+        }
+    }
+
+    /**
+     * Draws the label of one location. The batch has to be begun.
+     *
+     * @param batch
+     * @param location
+     * @param markerX    bottom left corner of the marker
+     * @param markerY
+     * @param zoomBucket slippy zoom level the map is drawn at
+     */
+    public void draw(Batch batch, Location location, float markerX, float markerY, int zoomBucket) {
+        drawBackground(batch, location, markerX, markerY, zoomBucket);
+        drawText(batch, location, markerX, markerY, zoomBucket);
+    }
+
+    /**
+     * Draws only the frame of the label. With the frames of all labels drawn before their texts, the
+     * batch switches textures twice instead of twice per label.
+     *
+     * @param batch
+     * @param location
+     * @param markerX    bottom left corner of the marker
+     * @param markerY
+     * @param zoomBucket slippy zoom level the map is drawn at
+     */
+    public void drawBackground(Batch batch, Location location, float markerX, float markerY, int zoomBucket) {
+        Drawable background = style.background;
+        if (background == null) {
+            return;
+        }
+        Entry entry = getEntry(location, zoomBucket);
+        float x = getLabelX(entry, markerX);
+        float y = getLabelY(entry, markerY);
+        if (background instanceof TransformDrawable) {
+            // scaled with the text, so the frame keeps its proportions
+            ((TransformDrawable) background).draw(batch, x, y, 0, 0,
+                    entry.width / entry.scale, entry.height / entry.scale, entry.scale, entry.scale, 0);
+        } else {
+            background.draw(batch, x, y, entry.width, entry.height);
+        }
+    }
+
+    /**
+     * Draws only the text of the label, see {@link #drawBackground}.
+     *
+     * @param batch
+     * @param location
+     * @param markerX    bottom left corner of the marker
+     * @param markerY
+     * @param zoomBucket slippy zoom level the map is drawn at
+     */
+    public void drawText(Batch batch, Location location, float markerX, float markerY, int zoomBucket) {
+        Entry entry = getEntry(location, zoomBucket);
+        entry.cache.setPosition(getLabelX(entry, markerX) + entry.textX, getLabelY(entry, markerY) + entry.textY);
+        entry.cache.draw(batch);
+    }
+
+    private float getLabelX(Entry entry, float markerX) {
+        return markerX + (markerSize - entry.width) / 2;
+    }
+
+    private float getLabelY(Entry entry, float markerY) {
+        return entry.above
+                ? markerY + markerSize + LABEL_GAP * entry.scale
+                : markerY - LABEL_OFFSET * entry.scale;
+    }
+
+    private Entry getEntry(Location location, int zoomBucket) {
+        Entry entry = entries.get(location);
+        if (entry == null) {
+            entry = new Entry(style.font);
+            entries.put(location, entry);
+        } else if (entry.zoomBucket == zoomBucket && entry.name != null && entry.name.equals(location.getInstitution())) {
+            return entry;
+        }
+        build(entry, location.getInstitution(), zoomBucket);
+        return entry;
+    }
+
+    /**
+     * Lays out the label text at the font scale of the bucket and measures the label like
+     * {@link Label#getPrefWidth()} and {@link Label#getPrefHeight()} do.
+     */
+    private void build(Entry entry, String name, int zoomBucket) {
+        float scale = getFontScale(zoomBucket);
+        entry.name = name;
+        entry.zoomBucket = zoomBucket;
+        entry.scale = scale;
+        entry.above = labelsAbove.contains(name);
+
+        BitmapFont font = style.font;
+        float oldScaleX = font.getScaleX();
+        float oldScaleY = font.getScaleY();
+        // the cache takes the glyph positions at the font's scale when the text is set
+        font.getData().setScale(scale);
+        try {
+            layout.setText(font, " " + name + " ", style.fontColor != null ? style.fontColor : font.getColor(), 0, Align.left, false);
+            entry.cache.clear();
+            entry.cache.addText(layout, 0, 0);
+
+            Drawable background = style.background;
+            float textHeight = layout.height - font.getDescent() * 2;
+            float left = background != null ? background.getLeftWidth() * scale : 0;
+            float right = background != null ? background.getRightWidth() * scale : 0;
+            float top = background != null ? background.getTopHeight() * scale : 0;
+            float bottom = background != null ? background.getBottomHeight() * scale : 0;
+            entry.width = left + layout.width + right;
+            entry.height = textHeight + top + bottom;
+            if (background != null) {
+                entry.width = Math.max(entry.width, background.getMinWidth() * scale);
+                entry.height = Math.max(entry.height, background.getMinHeight() * scale);
+            }
+            // vertically centred, the cache draws from the top of the text
+            entry.textX = left;
+            entry.textY = bottom + (entry.height - top - bottom - layout.height) / 2 + layout.height;
+        } finally {
+            font.getData().setScale(oldScaleX, oldScaleY);
+        }
+    }
+
+    private static float getFontScale(int zoomBucket) {
+        return (float) Math.pow(2, DEFAULT_ZOOM_BUCKET - zoomBucket);
+    }
+
+    /**
+     * Forgets the label of a location that is not shown anymore.
+     *
+     * @param location
+     */
+    public void remove(Location location) {
+        entries.remove(location);
+    }
+}
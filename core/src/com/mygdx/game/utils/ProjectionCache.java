@@ -0,0 +1,115 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.scenes.scene2d.Actor;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Map positions of geo-anchored entities (locations, crowd data, characters, event actors), keyed by
+ * entity identity.
+ * <p>
+ * A position is projected the first time it is asked for and then reused until the projection
+ * changes (another origin tile or zoom) or the entity moves, so drawing an overlay every frame does no
+ * projection math. Attached actors are moved along when the projection changes, keeping their own
+ * offset and running actions.
+ */
+public class ProjectionCache {
+
+    public static class Position {
+        public float x;
+        public float y;
+        double lat;
+        double lng;
+        int version;
+        // moved with the position if set
+        Actor actor;
+    }
+
+    private final Map<Object, Position> positions = new IdentityHashMap<>();
+    private MapProjection projection;
+    private int version;
+
+    public ProjectionCache(MapProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Returns the position of the entity, projecting it only if it is new, has moved or the projection
+     * changed. The returned object is owned by the cache.
+     *
+     * @param owner entity the position belongs to
+     * @param lat
+     * @param lng
+     * @return
+     */
+    public Position get(Object owner, double lat, double lng) {
+        Position position = positions.get(owner);
+        if (position == null) {
+            position = new Position();
+            position.version = -1;
+            positions.put(owner, position);
+        }
+        if (position.version != version || position.lat != lat || position.lng != lng) {
+            project(position, lat, lng);
+        }
+        return position;
+    }
+
+    /**
+     * Anchors an actor that was already placed relative to the given geolocation. When the projection
+     * changes the actor is moved by the difference, so its offset and any move actions are kept.
+     *
+     * @param actor
+     * @param lat
+     * @param lng
+     * @return position of the geolocation
+     */
+    public Position attach(Actor actor, double lat, double lng) {
+        Position position = get(actor, lat, lng);
+        position.actor = actor;
+        return position;
+    }
+
+    public void remove(Object owner) {
+        positions.remove(owner);
+    }
+
+    /**
+     * Switches to another projection, e.g. after the origin tile or zoom changed. Cached positions are
+     * reprojected lazily, attached actors right away.
+     *
+     * @param projection
+     */
+    public void setProjection(MapProjection projection) {
+        this.projection = projection;
+        version++;
+        for (Position position : positions.values()) {
+            if (position.actor != null) {
+                float oldX = position.x;
+                float oldY = position.y;
+                project(position, position.lat, position.lng);
+                position.actor.moveBy(position.x - oldX, position.y - oldY);
+            }
+        }
+    }
+
+    public MapProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return number of projection changes, positions of older versions are stale
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    private void project(Position position, double lat, double lng) {
+        position.x = projection.projectX(lng);
+        position.y = projection.projectY(lat);
+        position.lat = lat;
+        position.lng = lng;
+        position.version = version;
+    }
+}
@@ -0,0 +1,101 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Uniform grid over axis aligned boxes in world coordinates, for picking what is under a point.
+ * <p>
+ * Every box is listed in each cell it overlaps, so a pick only tests the boxes of one cell. With cells
+ * about the size of the boxes that is a handful, independent of how many boxes there are. Items are
+ * drawn in the order they are added, so a pick returns the last added item under the point, the one
+ * drawn on top.
+ *
+ * @param <T> type of the items
+ */
+public class SpatialGrid<T> {
+    private final float cellSize;
+    private final LongMap<IntArray> cells = new LongMap<>();
+    private final Array<T> items = new Array<>();
+    // x, y, width, height of every item
+    private final FloatArray bounds = new FloatArray();
+    // emptied cells, reused after clear
+    private final Array<IntArray> freeCells = new Array<>();
+
+    /**
+     * @param cellSize width and height of a cell in world units, about the size of the boxes
+     */
+    public SpatialGrid(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void add(T item, float x, float y, float width, float height) {
+        int index = items.size;
+        items.add(item);
+        bounds.add(x, y, width, height);
+
+        int minX = cell(x);
+        int maxX = cell(x + width);
+        int minY = cell(y);
+        int maxY = cell(y + height);
+        for (int cellY = minY; cellY <= maxY; cellY++) {
+            for (int cellX = minX; cellX <= maxX; cellX++) {
+                long key = key(cellX, cellY);
+                IntArray cell = cells.get(key);
+                if (cell == null) {
+                    cell = freeCells.size > 0 ? freeCells.pop() : new IntArray(4);
+                    cells.put(key, cell);
+                }
+                cell.add(index);
+            }
+        }
+    }
+
+    /**
+     * Returns the topmost item whose box contains the point, edges included.
+     *
+     * @param x
+     * @param y
+     * @return the item added last among those under the point, null if there is none
+     */
+    public T pick(float x, float y) {
+        IntArray cell = cells.get(key(cell(x), cell(y)));
+        if (cell == null) {
+            return null;
+        }
+        float[] b = bounds.items;
+        int top = -1;
+        for (int i = 0; i < cell.size; i++) {
+            int index = cell.get(i);
+            int k = index * 4;
+            if (index > top && x >= b[k] && x <= b[k] + b[k + 2] && y >= b[k + 1] && y <= b[k + 1] + b[k + 3]) {
+                top = index;
+            }
+        }
+        return top >= 0 ? items.get(top) : null;
+    }
+
+    public int size() {
+        return items.size;
+    }
+
+    public void clear() {
+        for (IntArray cell : cells.values()) {
+            cell.clear();
+            freeCells.add(cell);
+        }
+        cells.clear();
+        items.clear();
+        bounds.clear();
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
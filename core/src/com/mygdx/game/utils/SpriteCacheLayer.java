@@ -0,0 +1,357 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.SpriteCache;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Affine2;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Sprites that stay put in map space, recorded once into a {@link SpriteCache} and drawn from there.
+ * <p>
+ * A frame only sets the camera matrix and draws the cached vertices, one draw call per texture run, no
+ * matter how many sprites there are. Recording goes through a {@link Batch}, so code that draws to a
+ * batch (fonts, nine patches, drawables) records without changes. Sprites are kept in the order they
+ * were recorded; drawing everything of one texture before the next keeps the number of draw calls down.
+ */
+public class SpriteCacheLayer implements Disposable {
+    // the cache uses short indices, 4 vertices per sprite
+    public static final int MAX_SPRITES = 8191;
+    private static final int SPRITE_SIZE = 20;
+
+    private final SpriteCache cache;
+    private final int capacity;
+    private final Recorder recorder = new Recorder();
+    private int cacheId = -1;
+    private int sprites;
+    private boolean overflow;
+
+    public SpriteCacheLayer() {
+        this(MAX_SPRITES);
+    }
+
+    /**
+     * @param capacity sprites the layer holds, at most {@link #MAX_SPRITES}
+     */
+    public SpriteCacheLayer(int capacity) {
+        this.capacity = capacity;
+        cache = new SpriteCache(capacity, true);
+    }
+
+    /**
+     * Drops the recorded sprites and starts recording new ones. Draw them to the returned batch, then
+     * call {@link #end()}.
+     *
+     * @return batch recording into the layer
+     */
+    public Batch begin() {
+        cache.clear();
+        cache.setColor(Color.WHITE);
+        cache.beginCache();
+        cacheId = -1;
+        sprites = 0;
+        overflow = false;
+        recorder.drawing = true;
+        return recorder;
+    }
+
+    /**
+     * @return false if the sprites did not fit, the layer draws nothing then
+     */
+    public boolean end() {
+        recorder.drawing = false;
+        int id = cache.endCache();
+        cacheId = overflow ? -1 : id;
+        return !overflow;
+    }
+
+    /**
+     * @return true if sprites are recorded and fit
+     */
+    public boolean isValid() {
+        return cacheId >= 0;
+    }
+
+    public int getSpriteCount() {
+        return sprites;
+    }
+
+    /**
+     * Draws the recorded sprites, alpha blended.
+     *
+     * @param projection camera matrix, e.g. camera.combined
+     */
+    public void draw(Matrix4 projection) {
+        if (cacheId < 0) {
+            return;
+        }
+        Gdx.gl.glEnable(GL20.GL_BLEND);
+        Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+        cache.setProjectionMatrix(projection);
+        cache.begin();
+        cache.draw(cacheId);
+        cache.end();
+        Gdx.gl.glDisable(GL20.GL_BLEND);
+    }
+
+    /**
+     * Counts the sprites about to be added, false once they do not fit anymore.
+     */
+    private boolean reserve(int count) {
+        if (overflow || sprites + count > capacity) {
+            overflow = true;
+            return false;
+        }
+        sprites += count;
+        return true;
+    }
+
+    @Override
+    public void dispose() {
+        cache.dispose();
+    }
+
+    /**
+     * Adds everything drawn to it to the cache. Blending and shader are those of the layer, so the
+     * methods changing them are not supported.
+     */
+    private class Recorder implements Batch {
+        final float[] vertices = new float[SPRITE_SIZE];
+        boolean drawing;
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void end() {
+        }
+
+        @Override
+        public void setColor(Color tint) {
+            cache.setColor(tint);
+        }
+
+        @Override
+        public void setColor(float r, float g, float b, float a) {
+            cache.setColor(r, g, b, a);
+        }
+
+        @Override
+        public Color getColor() {
+            return cache.getColor();
+        }
+
+        @Override
+        public void setPackedColor(float packedColor) {
+            cache.setPackedColor(packedColor);
+        }
+
+        @Override
+        public float getPackedColor() {
+            return cache.getPackedColor();
+        }
+
+        @Override
+        public void draw(Texture texture, float x, float y, float originX, float originY, float width, float height,
+                         float scaleX, float scaleY, float rotation, int srcX, int srcY, int srcWidth, int srcHeight,
+                         boolean flipX, boolean flipY) {
+            if (reserve(1)) {
+                cache.add(texture, x, y, originX, originY, width, height, scaleX, scaleY, rotation,
+                        srcX, srcY, srcWidth, srcHeight, flipX, flipY);
+            }
+        }
+
+        @Override
+        public void draw(Texture texture, float x, float y, float width, float height, int srcX, int srcY,
+                         int srcWidth, int srcHeight, boolean flipX, boolean flipY) {
+            if (reserve(1)) {
+                cache.add(texture, x, y, width, height, srcX, srcY, srcWidth, srcHeight, flipX, flipY);
+            }
+        }
+
+        @Override
+        public void draw(Texture texture, float x, float y, int srcX, int srcY, int srcWidth, int srcHeight) {
+            if (reserve(1)) {
+                cache.add(texture, x, y, srcX, srcY, srcWidth, srcHeight);
+            }
+        }
+
+        @Override
+        public void draw(Texture texture, float x, float y, float width, float height, float u, float v, float u2, float v2) {
+            if (reserve(1)) {
+                // the cache only takes whole pixel sizes with texture coordinates
+                float color = cache.getPackedColor();
+                float[] vertices = this.vertices;
+                vertices[X1] = x;
+                vertices[Y1] = y;
+                vertices[C1] = color;
+                vertices[U1] = u;
+                vertices[V1] = v;
+                vertices[X2] = x;
+                vertices[Y2] = y + height;
+                vertices[C2] = color;
+                vertices[U2] = u;
+                vertices[V2] = v2;
+                vertices[X3] = x + width;
+                vertices[Y3] = y + height;
+                vertices[C3] = color;
+                vertices[U3] = u2;
+                vertices[V3] = v2;
+                vertices[X4] = x + width;
+                vertices[Y4] = y;
+                vertices[C4] = color;
+                vertices[U4] = u2;
+                vertices[V4] = v;
+                cache.add(texture, vertices, 0, SPRITE_SIZE);
+            }
+        }
+
+        @Override
+        public void draw(Texture texture, float x, float y) {
+            if (reserve(1)) {
+                cache.add(texture, x, y);
+            }
+        }
+
+        @Override
+        public void draw(Texture texture, float x, float y, float width, float height) {
+            if (reserve(1)) {
+                cache.add(texture, x, y, width, height, 0, 0, texture.getWidth(), texture.getHeight(), false, false);
+            }
+        }
+
+        @Override
+        public void draw(Texture texture, float[] spriteVertices, int offset, int count) {
+            if (reserve(count / SPRITE_SIZE)) {
+                cache.add(texture, spriteVertices, offset, count);
+            }
+        }
+
+        @Override
+        public void draw(TextureRegion region, float x, float y) {
+            if (reserve(1)) {
+                cache.add(region, x, y);
+            }
+        }
+
+        @Override
+        public void draw(TextureRegion region, float x, float y, float width, float height) {
+            if (reserve(1)) {
+                cache.add(region, x, y, width, height);
+            }
+        }
+
+        @Override
+        public void draw(TextureRegion region, float x, float y, float originX, float originY, float width, float height,
+                         float scaleX, float scaleY, float rotation) {
+            if (reserve(1)) {
+                cache.add(region, x, y, originX, originY, width, height, scaleX, scaleY, rotation);
+            }
+        }
+
+        @Override
+        public void draw(TextureRegion region, float x, float y, float originX, float originY, float width, float height,
+                         float scaleX, float scaleY, float rotation, boolean clockwise) {
+            throw new UnsupportedOperationException("Rotated regions are not supported.");
+        }
+
+        @Override
+        public void draw(TextureRegion region, float width, float height, Affine2 transform) {
+            throw new UnsupportedOperationException("Affine transforms are not supported.");
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void disableBlending() {
+            throw new UnsupportedOperationException("The layer is always blended.");
+        }
+
+        @Override
+        public void enableBlending() {
+        }
+
+        @Override
+        public void setBlendFunction(int srcFunc, int dstFunc) {
+            throw new UnsupportedOperationException("The layer is always blended.");
+        }
+
+        @Override
+        public void setBlendFunctionSeparate(int srcFuncColor, int dstFuncColor, int srcFuncAlpha, int dstFuncAlpha) {
+            throw new UnsupportedOperationException("The layer is always blended.");
+        }
+
+        @Override
+        public int getBlendSrcFunc() {
+            return GL20.GL_SRC_ALPHA;
+        }
+
+        @Override
+        public int getBlendDstFunc() {
+            return GL20.GL_ONE_MINUS_SRC_ALPHA;
+        }
+
+        @Override
+        public int getBlendSrcFuncAlpha() {
+            return GL20.GL_SRC_ALPHA;
+        }
+
+        @Override
+        public int getBlendDstFuncAlpha() {
+            return GL20.GL_ONE_MINUS_SRC_ALPHA;
+        }
+
+        @Override
+        public Matrix4 getProjectionMatrix() {
+            return cache.getProjectionMatrix();
+        }
+
+        @Override
+        public Matrix4 getTransformMatrix() {
+            return cache.getTransformMatrix();
+        }
+
+        @Override
+        public void setProjectionMatrix(Matrix4 projection) {
+            // recorded in map space, the matrix is given when drawing
+        }
+
+        @Override
+        public void setTransformMatrix(Matrix4 transform) {
+            throw new UnsupportedOperationException("Sprites are recorded untransformed.");
+        }
+
+        @Override
+        public void setShader(ShaderProgram shader) {
+            throw new UnsupportedOperationException("The layer uses the cache's shader.");
+        }
+
+        @Override
+        public ShaderProgram getShader() {
+            return cache.getCustomShader();
+        }
+
+        @Override
+        public boolean isBlendingEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isDrawing() {
+            return drawing;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+}
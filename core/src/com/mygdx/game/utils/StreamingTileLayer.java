@@ -0,0 +1,468 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tile layer that only loads the slippy tiles the camera can see.
+ * <p>
+ * World coordinates are the same as for the markers: the top left corner of {@code originTile} is at
+ * (0, {@code originTop}) and one tile of its zoom is {@link MapRasterTiles#TILE_SIZE} units wide.
+ * The drawn zoom level follows the camera zoom between {@link Constants#MIN_ZOOM} and
+ * {@link Constants#MAX_ZOOM}. Every frame the visible tile range is computed from the camera, missing
+ * tiles are requested from the {@link TileLoader} and the closest cached ancestor tile is drawn scaled
+ * and cropped until they arrive, or a placeholder if there is none. Tiles that scroll more than
+ * {@link #RETAIN_MARGIN} tiles out of view are released from the tile cache.
+ * <p>
+ * Loaded tiles are slots of the {@link TileAtlas}. The draws of a frame are queued and issued grouped
+ * by texture, so the batch switches textures once per atlas page instead of once per tile.
+ * <p>
+ * Requests are ranked by {@link #getPriority}: visible tiles from the centre of the view outwards, then
+ * the ring of {@link #PREFETCH_MARGIN} tiles around the view, then ancestors still waiting from a
+ * coarser level. Whenever the camera moves the waiting requests are ranked again and requests for
+ * tiles that are no longer needed are cancelled.
+ * <p>
+ * While the camera moves, the {@link TilePrefetcher} predicts the view a moment ahead and the tiles of
+ * that view are requested after the visible ones.
+ */
+public class StreamingTileLayer implements Disposable, TileLoader.TilePriority {
+    public static final int RETAIN_MARGIN = 2;
+    public static final int PREFETCH_MARGIN = 1;
+    // at most this many tiles are requested for one prediction
+    public static final int MAX_PREDICTED_TILES = 32;
+    // priority offsets, a tile never gets far enough from the centre to reach the next band
+    private static final float PREDICTED_PRIORITY = 500;
+    private static final float PREFETCH_PRIORITY = 1000;
+    private static final float ANCESTOR_PRIORITY = 2000;
+    private static final long RETRY_DELAY = 5000;
+
+    private final ZoomXY originTile;
+    private final float originTop;
+    private final int tileSize;
+    private final int tileCount;
+
+    private final Texture placeholder;
+    private final TilePrefetcher prefetcher = new TilePrefetcher();
+    private final LongMap<ZoomXY> pending = new LongMap<>();
+    private final LongMap<ZoomXY> loaded = new LongMap<>();
+    private final LongMap<Long> failed = new LongMap<>();
+    private final DrawQueue drawQueue = new DrawQueue();
+    private final TileCallback callback = new TileCallback() {
+        @Override
+        public void tileLoaded(ZoomXY tile, TextureRegion region) {
+            long tileKey = TileKey.of(tile);
+            pending.remove(tileKey);
+            loaded.put(tileKey, tile);
+        }
+
+        @Override
+        public void tileFailed(ZoomXY tile, Exception e) {
+            long tileKey = TileKey.of(tile);
+            pending.remove(tileKey);
+            if (e instanceof CancellationException) {
+                // scrolled away before it was loaded, requested again if it comes back into view
+                prefetcher.cancelled(tileKey);
+                return;
+            }
+            prefetcher.released(tileKey);
+            failed.put(tileKey, TimeUtils.millis());
+            System.out.println("Error loading tile " + tile + ": " + e.getMessage());
+        }
+    };
+
+    // visible tiles of the last frame and the predicted view
+    private final TileRange view = new TileRange();
+    private final TileRange predicted = new TileRange();
+    private boolean predicting;
+    private boolean cameraMoved;
+
+    /**
+     * Zoom level and inclusive tile range covered by a view.
+     */
+    private static class TileRange {
+        int level;
+        int minX, maxX, minY, maxY;
+        // centre of the view in tiles of the level
+        float centerX, centerY;
+
+        boolean contains(int level, int x, int y) {
+            return level == this.level && x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+
+        float distance(int x, int y) {
+            float dx = x + 0.5f - centerX;
+            float dy = y + 0.5f - centerY;
+            return (float) Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    /**
+     * Tile draws of one frame. Tiles do not overlap, so they can be drawn in any order.
+     */
+    private static class DrawQueue {
+        // x, y, size, u, v, u2, v2 of every draw
+        private static final int STRIDE = 7;
+
+        final Array<Texture> textures = new Array<>();
+        final FloatArray draws = new FloatArray();
+
+        void add(TextureRegion region, float x, float y, float size) {
+            // bottom left corner gets the bottom of the region, like SpriteBatch.draw(TextureRegion, ...)
+            add(region.getTexture(), x, y, size, region.getU(), region.getV2(), region.getU2(), region.getV());
+        }
+
+        void add(Texture texture, float x, float y, float size, float u, float v, float u2, float v2) {
+            textures.add(texture);
+            draws.add(x, y, size, u);
+            draws.add(v, u2, v2);
+        }
+
+        /**
+         * Draws the queued tiles, all tiles of a texture together, and clears the queue.
+         */
+        void flush(SpriteBatch batch) {
+            float[] d = draws.items;
+            for (int i = 0; i < textures.size; i++) {
+                Texture texture = textures.get(i);
+                if (texture == null) {
+                    continue;
+                }
+                for (int j = i; j < textures.size; j++) {
+                    if (textures.get(j) == texture) {
+                        int k = j * STRIDE;
+                        batch.draw(texture, d[k], d[k + 1], d[k + 2], d[k + 2], d[k + 3], d[k + 4], d[k + 5], d[k + 6]);
+                        textures.set(j, null);
+                    }
+                }
+            }
+            textures.clear();
+            draws.clear();
+        }
+    }
+
+    /**
+     * @param originTile tile whose top left corner is at (0, originTop) in world coordinates, its zoom
+     *                   is the level drawn at camera zoom 1
+     * @param originTop  world y of the top edge of originTile
+     */
+    public StreamingTileLayer(ZoomXY originTile, float originTop) {
+        this.originTile = originTile;
+        this.originTop = originTop;
+        this.tileSize = MapRasterTiles.TILE_SIZE;
+        this.tileCount = 1 << originTile.zoom;
+
+        Pixmap pixmap = new Pixmap(1, 1, Pixmap.Format.RGBA8888);
+        pixmap.setColor(Color.DARK_GRAY);
+        pixmap.fill();
+        placeholder = new Texture(pixmap);
+        pixmap.dispose();
+    }
+
+    /**
+     * Returns the slippy zoom whose tiles are drawn closest to their native size at the given camera zoom.
+     *
+     * @param cameraZoom
+     * @return
+     */
+    public int getZoomLevel(float cameraZoom) {
+        int level = originTile.zoom - Math.round((float) (Math.log(cameraZoom) / Math.log(2)));
+        return Math.max(Constants.MIN_ZOOM, Math.min(Constants.MAX_ZOOM, level));
+    }
+
+    /**
+     * Computes the tiles covered by a view.
+     *
+     * @return true if the range changed
+     */
+    private boolean setRange(TileRange range, float cameraX, float cameraY, float cameraZoom, OrthographicCamera camera) {
+        int level = getZoomLevel(cameraZoom);
+        int levelTileCount = 1 << level;
+        // tile size of this level in world units and the origin tile in tiles of this level
+        double scale = Math.pow(2, level - originTile.zoom);
+        float levelTileSize = (float) (tileSize / scale);
+        double originX = originTile.x * scale;
+        double originY = originTile.y * scale;
+
+        float halfWidth = camera.viewportWidth * cameraZoom / 2f;
+        float halfHeight = camera.viewportHeight * cameraZoom / 2f;
+
+        int minX = Math.max(0, (int) Math.floor(originX + (cameraX - halfWidth) / levelTileSize));
+        int maxX = Math.min(levelTileCount - 1, (int) Math.floor(originX + (cameraX + halfWidth) / levelTileSize));
+        int minY = Math.max(0, (int) Math.floor(originY + (originTop - cameraY - halfHeight) / levelTileSize));
+        int maxY = Math.min(levelTileCount - 1, (int) Math.floor(originY + (originTop - cameraY + halfHeight) / levelTileSize));
+
+        range.centerX = (float) (originX + cameraX / levelTileSize);
+        range.centerY = (float) (originY + (originTop - cameraY) / levelTileSize);
+
+        if (level == range.level && minX == range.minX && maxX == range.maxX && minY == range.minY && maxY == range.maxY) {
+            return false;
+        }
+        range.level = level;
+        range.minX = minX;
+        range.maxX = maxX;
+        range.minY = minY;
+        range.maxY = maxY;
+        return true;
+    }
+
+    public void render(SpriteBatch batch, OrthographicCamera camera) {
+        boolean rangeChanged = setRange(view, camera.position.x, camera.position.y, camera.zoom, camera);
+        if (rangeChanged) {
+            releaseFarTiles();
+        }
+
+        prefetcher.update(camera, Gdx.graphics.getDeltaTime());
+        boolean wasPredicting = predicting;
+        predicting = prefetcher.isPredicting();
+        boolean predictionChanged = predicting && (setRange(predicted, prefetcher.getPredictedX(), prefetcher.getPredictedY(),
+                prefetcher.getPredictedZoom(), camera) || !wasPredicting);
+
+        if (rangeChanged || predictionChanged || cameraMoved) {
+            cameraMoved = false;
+            MapRasterTiles.getTileLoader().reprioritize(this);
+        }
+
+        int level = view.level;
+        int levelTileCount = 1 << level;
+        double scale = Math.pow(2, level - originTile.zoom);
+        float levelTileSize = (float) (tileSize / scale);
+        double originX = originTile.x * scale;
+        double originY = originTile.y * scale;
+
+        TileCache cache = MapRasterTiles.getTileCache();
+        batch.setProjectionMatrix(camera.combined);
+        batch.begin();
+        for (int y = view.minY; y <= view.maxY; y++) {
+            for (int x = view.minX; x <= view.maxX; x++) {
+                float worldX = (float) ((x - originX) * levelTileSize);
+                float worldY = (float) (originTop - (y - originY + 1) * levelTileSize);
+
+                TextureRegion region = cache.getRegion(level, x, y);
+                if (region != null) {
+                    drawQueue.add(region, worldX, worldY, levelTileSize);
+                    prefetcher.shown(TileKey.of(level, x, y));
+                } else {
+                    request(level, x, y);
+                    if (!queueParent(cache, level, x, y, worldX, worldY, levelTileSize)) {
+                        drawQueue.add(placeholder, worldX, worldY, levelTileSize, 0, 1, 1, 0);
+                    }
+                }
+            }
+        }
+        drawQueue.flush(batch);
+        batch.end();
+
+        if (rangeChanged) {
+            requestPrefetchRing(level, levelTileCount);
+        }
+        if (predictionChanged) {
+            requestPredicted();
+        }
+    }
+
+    /**
+     * Marks the waiting requests for ranking again on the next frame. Called from the input handlers
+     * whenever they move or zoom the camera.
+     */
+    public void cameraMoved() {
+        cameraMoved = true;
+    }
+
+    /**
+     * Ranks a tile against the range drawn in the last frame and the predicted view.
+     *
+     * @return distance from the centre of the view in tiles for visible tiles, higher values for
+     * predicted tiles, tiles around the view and ancestors, -1 for tiles that are not needed anymore
+     */
+    @Override
+    public float getPriority(int level, int x, int y) {
+        if (view.contains(level, x, y)) {
+            return view.distance(x, y);
+        }
+        if (predicting && predicted.contains(level, x, y)) {
+            return PREDICTED_PRIORITY + predicted.distance(x, y);
+        }
+        if (level == view.level) {
+            if (x >= view.minX - PREFETCH_MARGIN && x <= view.maxX + PREFETCH_MARGIN
+                    && y >= view.minY - PREFETCH_MARGIN && y <= view.maxY + PREFETCH_MARGIN) {
+                return PREFETCH_PRIORITY + view.distance(x, y);
+            }
+            return -1;
+        }
+        if (level < view.level) {
+            // still useful as a scaled fallback while it covers part of the view
+            int depth = view.level - level;
+            if (x >= view.minX >> depth && x <= view.maxX >> depth && y >= view.minY >> depth && y <= view.maxY >> depth) {
+                return ANCESTOR_PRIORITY + depth;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Requests the tiles of the predicted view that are not visible yet, closest to its centre first.
+     */
+    private void requestPredicted() {
+        int requested = 0;
+        // nearest first, so the cap drops the edges of the prediction
+        int radius = Math.max(predicted.maxX - predicted.minX, predicted.maxY - predicted.minY);
+        int centerX = (int) predicted.centerX;
+        int centerY = (int) predicted.centerY;
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int y = centerY - ring; y <= centerY + ring; y++) {
+                for (int x = centerX - ring; x <= centerX + ring; x++) {
+                    if (Math.max(Math.abs(x - centerX), Math.abs(y - centerY)) != ring
+                            || !predicted.contains(predicted.level, x, y) || view.contains(predicted.level, x, y)) {
+                        continue;
+                    }
+                    long tileKey = TileKey.of(predicted.level, x, y);
+                    if (loaded.containsKey(tileKey) || pending.containsKey(tileKey)) {
+                        continue;
+                    }
+                    if (requested == MAX_PREDICTED_TILES) {
+                        return;
+                    }
+                    if (request(predicted.level, x, y)) {
+                        prefetcher.prefetched(tileKey, pending.get(tileKey));
+                        requested++;
+                    }
+                }
+            }
+        }
+    }
+
+    public TilePrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Requests the tiles in the ring of {@link #PREFETCH_MARGIN} tiles around the visible range, so they
+     * are usually ready when they scroll into view.
+     */
+    private void requestPrefetchRing(int level, int levelTileCount) {
+        int ringMinX = Math.max(0, view.minX - PREFETCH_MARGIN);
+        int ringMaxX = Math.min(levelTileCount - 1, view.maxX + PREFETCH_MARGIN);
+        int ringMinY = Math.max(0, view.minY - PREFETCH_MARGIN);
+        int ringMaxY = Math.min(levelTileCount - 1, view.maxY + PREFETCH_MARGIN);
+        for (int y = ringMinY; y <= ringMaxY; y++) {
+            for (int x = ringMinX; x <= ringMaxX; x++) {
+                if (view.contains(level, x, y)) {
+                    // skip the visible range
+                    x = view.maxX;
+                    continue;
+                }
+                if (!loaded.containsKey(TileKey.of(level, x, y))) {
+                    request(level, x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the part of the closest cached ancestor tile that covers the given tile.
+     *
+     * @return false if no ancestor is cached
+     */
+    private boolean queueParent(TileCache cache, int level, int x, int y, float worldX, float worldY, float size) {
+        for (int depth = 1; level - depth >= Constants.MIN_ZOOM && (tileSize >> depth) > 0; depth++) {
+            TextureRegion parent = cache.getRegion(level - depth, x >> depth, y >> depth);
+            if (parent != null) {
+                int mask = (1 << depth) - 1;
+                int srcSize = parent.getRegionWidth() >> depth;
+                int srcX = parent.getRegionX() + (x & mask) * srcSize;
+                int srcY = parent.getRegionY() + (y & mask) * srcSize;
+                Texture texture = parent.getTexture();
+                float invWidth = 1f / texture.getWidth();
+                float invHeight = 1f / texture.getHeight();
+                drawQueue.add(texture, worldX, worldY, size, srcX * invWidth, (srcY + srcSize) * invHeight,
+                        (srcX + srcSize) * invWidth, srcY * invHeight);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a new load was started
+     */
+    private boolean request(int level, int x, int y) {
+        long tileKey = TileKey.of(level, x, y);
+        if (pending.containsKey(tileKey)) {
+            return false;
+        }
+        Long failedAt = failed.get(tileKey);
+        if (failedAt != null && TimeUtils.timeSinceMillis(failedAt) < RETRY_DELAY) {
+            return false;
+        }
+        failed.remove(tileKey);
+        pending.put(tileKey, new ZoomXY(level, x, y));
+        MapRasterTiles.getTileLoader().load(level, x, y, getPriority(level, x, y), callback);
+        return true;
+    }
+
+    /**
+     * Releases tiles more than {@link #RETAIN_MARGIN} tiles outside the visible range. Tiles of other
+     * levels are compared against the visible range projected onto their level, so ancestors of
+     * visible tiles stay cached as fallbacks.
+     */
+    private void releaseFarTiles() {
+        TileCache cache = MapRasterTiles.getTileCache();
+        LongMap.Values<ZoomXY> iterator = loaded.values();
+        while (iterator.hasNext()) {
+            ZoomXY tile = iterator.next();
+            int tileMinX, tileMaxX, tileMinY, tileMaxY;
+            if (tile.zoom <= view.level) {
+                int depth = view.level - tile.zoom;
+                tileMinX = view.minX >> depth;
+                tileMaxX = view.maxX >> depth;
+                tileMinY = view.minY >> depth;
+                tileMaxY = view.maxY >> depth;
+            } else {
+                int depth = tile.zoom - view.level;
+                tileMinX = view.minX << depth;
+                tileMaxX = ((view.maxX + 1) << depth) - 1;
+                tileMinY = view.minY << depth;
+                tileMaxY = ((view.maxY + 1) << depth) - 1;
+            }
+            if (tile.x < tileMinX - RETAIN_MARGIN || tile.x > tileMaxX + RETAIN_MARGIN
+                    || tile.y < tileMinY - RETAIN_MARGIN || tile.y > tileMaxY + RETAIN_MARGIN) {
+                cache.removeTexture(tile.zoom, tile.x, tile.y);
+                prefetcher.released(TileKey.of(tile));
+                iterator.remove();
+            }
+        }
+    }
+
+    public float getMinWorldX() {
+        return -originTile.x * (float) tileSize;
+    }
+
+    public float getMaxWorldX() {
+        return (tileCount - originTile.x) * (float) tileSize;
+    }
+
+    public float getMinWorldY() {
+        return originTop - (tileCount - originTile.y) * (float) tileSize;
+    }
+
+    public float getMaxWorldY() {
+        return originTop + originTile.y * (float) tileSize;
+    }
+
+    @Override
+    public void dispose() {
+        placeholder.dispose();
+    }
+}
@@ -0,0 +1,167 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Packs tiles into a few large textures, so the tile layer switches textures once per page instead of
+ * once per tile.
+ * <p>
+ * A page is a grid of equally sized slots, one tile each. Freed slots go back to the page's free list
+ * and are overwritten by the next tile, a page is only disposed when it is empty and another page of
+ * its slot size is left. Render thread only.
+ */
+public class TileAtlas implements Disposable {
+    public static final int DEFAULT_PAGE_SIZE = 2048;
+
+    private final int pageSize;
+    private final Array<Page> pages = new Array<>();
+    // RGBA8888 copy of tiles decoded in another format, the page format has to match for the upload
+    private Pixmap scratch;
+
+    private static class Page {
+        final Texture texture;
+        final int slotSize;
+        final int columns;
+        final IntArray freeSlots;
+
+        Page(int pageSize, int slotSize) {
+            this.slotSize = slotSize;
+            // tiles larger than a page get a page of their own
+            int size = Math.max(pageSize, slotSize);
+            columns = size / slotSize;
+            texture = new Texture(size, size, Pixmap.Format.RGBA8888);
+            freeSlots = new IntArray(columns * columns);
+            // lowest slot first
+            for (int slot = columns * columns - 1; slot >= 0; slot--) {
+                freeSlots.add(slot);
+            }
+        }
+
+        boolean isEmpty() {
+            return freeSlots.size == columns * columns;
+        }
+    }
+
+    /**
+     * Region of a page, remembers its slot so it can be freed.
+     */
+    public static class Slot extends TextureRegion {
+        private final Page page;
+        private final int slot;
+
+        Slot(Page page, int slot, int x, int y, int width, int height) {
+            super(page.texture, x, y, width, height);
+            this.page = page;
+            this.slot = slot;
+        }
+    }
+
+    public TileAtlas() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize width and height of the pages in pixels
+     */
+    public TileAtlas(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Uploads the tile into a free slot, adding a page if all slots of its size are used.
+     * The pixmap is not disposed.
+     *
+     * @param pixmap
+     * @return region of the tile in its page
+     */
+    public Slot add(Pixmap pixmap) {
+        int slotSize = Math.max(pixmap.getWidth(), pixmap.getHeight());
+        Page page = null;
+        for (Page candidate : pages) {
+            if (candidate.slotSize == slotSize && candidate.freeSlots.size > 0) {
+                page = candidate;
+                break;
+            }
+        }
+        if (page == null) {
+            page = new Page(pageSize, slotSize);
+            pages.add(page);
+        }
+
+        int slot = page.freeSlots.pop();
+        int x = (slot % page.columns) * slotSize;
+        int y = (slot / page.columns) * slotSize;
+        page.texture.draw(toPageFormat(pixmap), x, y);
+        return new Slot(page, slot, x, y, pixmap.getWidth(), pixmap.getHeight());
+    }
+
+    private Pixmap toPageFormat(Pixmap pixmap) {
+        if (pixmap.getFormat() == Pixmap.Format.RGBA8888) {
+            return pixmap;
+        }
+        if (scratch == null || scratch.getWidth() != pixmap.getWidth() || scratch.getHeight() != pixmap.getHeight()) {
+            if (scratch != null) {
+                scratch.dispose();
+            }
+            scratch = new Pixmap(pixmap.getWidth(), pixmap.getHeight(), Pixmap.Format.RGBA8888);
+            scratch.setBlending(Pixmap.Blending.None);
+        }
+        scratch.drawPixmap(pixmap, 0, 0);
+        return scratch;
+    }
+
+    /**
+     * Returns the slot of the region to its page. The region must not be drawn afterwards.
+     *
+     * @param region
+     */
+    public void free(Slot region) {
+        Page page = region.page;
+        page.freeSlots.add(region.slot);
+        if (page.isEmpty() && hasFreeSlot(page.slotSize, page)) {
+            pages.removeValue(page, true);
+            page.texture.dispose();
+        }
+    }
+
+    private boolean hasFreeSlot(int slotSize, Page except) {
+        for (Page page : pages) {
+            if (page != except && page.slotSize == slotSize && page.freeSlots.size > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getPageCount() {
+        return pages.size;
+    }
+
+    /**
+     * @return GPU bytes of all pages, used or not
+     */
+    public long getPageBytes() {
+        long bytes = 0;
+        for (Page page : pages) {
+            bytes += (long) page.texture.getWidth() * page.texture.getHeight() * 4;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void dispose() {
+        for (Page page : pages) {
+            page.texture.dispose();
+        }
+        pages.clear();
+        if (scratch != null) {
+            scratch.dispose();
+            scratch = null;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.LongMap;
+
+import java.util.Arrays;
+
+/**
+ * Two-tier in-memory tile cache.
+ * <ul>
+ * <li>Textures: a small LRU of uploaded tiles bounded by GPU bytes. Streamed tiles are slots of the
+ * {@link TileAtlas}, tiles loaded synchronously are textures of their own. Evicted tiles are freed right
+ * away, so a region returned from here is only valid until the next {@link #putRegion} or
+ * {@link #putTexture}. Render thread only.</li>
+ * <li>Bytes: a larger LRU of encoded tiles bounded by heap bytes. Thread safe.</li>
+ * </ul>
+ * Both tiers are keyed by {@link TileKey}, so lookups do not allocate.
+ * <p>
+ * Tiles with identical content ({@link TileHash}) share one byte array and one texture. Shared entries
+ * are reference counted, they only count once against the budgets and are freed with their last tile.
+ */
+public class TileCache implements Disposable {
+    public static final long DEFAULT_TEXTURE_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_TILE_BYTES = 32L * 1024 * 1024;
+
+    private static class SharedTexture {
+        final TextureRegion region;
+        final long hash;
+        int refs;
+
+        SharedTexture(TextureRegion region, long hash) {
+            this.region = region;
+            this.hash = hash;
+        }
+    }
+
+    private static class SharedTile {
+        final byte[] bytes;
+        final long hash;
+        int refs;
+
+        SharedTile(byte[] bytes, long hash) {
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+    }
+
+    private final TileAtlas atlas = new TileAtlas();
+    private final LongLruMap<SharedTexture> textures = new LongLruMap<>(64);
+    private final LongMap<SharedTexture> texturesByContent = new LongMap<>(64);
+    private final LongLruMap<SharedTile> tiles = new LongLruMap<>(256);
+    private final LongMap<SharedTile> tilesByContent = new LongMap<>(256);
+
+    private long maxTextureBytes;
+    private long maxTileBytes;
+    private long textureBytes;
+    private long tileBytes;
+    private int uniqueTextures;
+    private int uniqueTiles;
+
+    public TileCache(long maxTextureBytes, long maxTileBytes) {
+        this.maxTextureBytes = maxTextureBytes;
+        this.maxTileBytes = maxTileBytes;
+    }
+
+    /**
+     * Changes both budgets, evicting entries if the cache is over the new limits.
+     *
+     * @param maxTextureBytes GPU bytes for uploaded tiles
+     * @param maxTileBytes    heap bytes for encoded tiles
+     */
+    public void setLimits(long maxTextureBytes, long maxTileBytes) {
+        this.maxTextureBytes = maxTextureBytes;
+        trimTextures();
+        synchronized (tiles) {
+            this.maxTileBytes = maxTileBytes;
+            trimTiles();
+        }
+    }
+
+    /**
+     * @return the uploaded tile, an atlas slot or a whole texture, or null if it is not cached
+     */
+    public TextureRegion getRegion(int zoom, int x, int y) {
+        SharedTexture shared = textures.get(TileKey.of(zoom, x, y));
+        return shared != null ? shared.region : null;
+    }
+
+    /**
+     * @return the texture of a tile cached with {@link #putTexture}, null if it is not cached or packed
+     * into the atlas
+     */
+    public Texture getTexture(int zoom, int x, int y) {
+        SharedTexture shared = textures.get(TileKey.of(zoom, x, y));
+        return shared != null && !(shared.region instanceof TileAtlas.Slot) ? shared.region.getTexture() : null;
+    }
+
+    /**
+     * Caches the tile with the region of another tile with the same content, if there is one.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param hash content hash of the tile
+     * @return the shared region or null if no tile with this content is uploaded
+     */
+    public TextureRegion shareRegion(int zoom, int x, int y, long hash) {
+        SharedTexture shared = hash != TileHash.NONE ? texturesByContent.get(hash) : null;
+        if (shared == null) {
+            return null;
+        }
+        putShared(TileKey.of(zoom, x, y), shared);
+        return shared.region;
+    }
+
+    /**
+     * Uploads the tile into a slot of the atlas and caches it. Other tiles with the same content can
+     * then share the slot through {@link #shareRegion}. The pixmap is not disposed.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param hash   content hash of the tile or {@link TileHash#NONE}
+     * @param pixmap
+     * @return region of the tile in its atlas page
+     */
+    public TextureRegion putRegion(int zoom, int x, int y, long hash, Pixmap pixmap) {
+        TextureRegion region = atlas.add(pixmap);
+        put(TileKey.of(zoom, x, y), region, hash);
+        return region;
+    }
+
+    public void putTexture(int zoom, int x, int y, Texture texture) {
+        putTexture(zoom, x, y, TileHash.NONE, texture);
+    }
+
+    /**
+     * Caches the texture of a tile, the cache disposes it when the tile is evicted. Other tiles with
+     * the same content can then share it through {@link #shareRegion}.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param hash    content hash of the tile or {@link TileHash#NONE}
+     * @param texture
+     */
+    public void putTexture(int zoom, int x, int y, long hash, Texture texture) {
+        long key = TileKey.of(zoom, x, y);
+        SharedTexture previous = textures.get(key);
+        if (previous != null && previous.region.getTexture() == texture) {
+            return;
+        }
+        put(key, new TextureRegion(texture), hash);
+    }
+
+    private void put(long key, TextureRegion region, long hash) {
+        SharedTexture shared = new SharedTexture(region, hash);
+        if (hash != TileHash.NONE && !texturesByContent.containsKey(hash)) {
+            texturesByContent.put(hash, shared);
+        }
+        putShared(key, shared);
+    }
+
+    private void putShared(long key, SharedTexture shared) {
+        SharedTexture previous = textures.put(key, shared);
+        if (previous == shared) {
+            return;
+        }
+        if (shared.refs++ == 0) {
+            textureBytes += getTextureBytes(shared.region);
+            uniqueTextures++;
+        }
+        if (previous != null) {
+            release(previous);
+        }
+        trimTextures();
+    }
+
+    /**
+     * Removes the tile from the cache and frees its slot or texture unless other tiles still share it.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     */
+    public void removeTexture(int zoom, int x, int y) {
+        SharedTexture shared = textures.remove(TileKey.of(zoom, x, y));
+        if (shared != null) {
+            release(shared);
+        }
+    }
+
+    private void release(SharedTexture shared) {
+        if (--shared.refs > 0) {
+            return;
+        }
+        textureBytes -= getTextureBytes(shared.region);
+        uniqueTextures--;
+        if (texturesByContent.get(shared.hash) == shared) {
+            texturesByContent.remove(shared.hash);
+        }
+        if (shared.region instanceof TileAtlas.Slot) {
+            atlas.free((TileAtlas.Slot) shared.region);
+        } else {
+            shared.region.getTexture().dispose();
+        }
+    }
+
+    public byte[] getTile(int zoom, int x, int y) {
+        synchronized (tiles) {
+            SharedTile shared = tiles.get(TileKey.of(zoom, x, y));
+            return shared != null ? shared.bytes : null;
+        }
+    }
+
+    /**
+     * Caches the encoded tile. If a tile with the same bytes is cached, its array is shared instead.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param bytes
+     * @return the cached array, use it instead of bytes so the duplicate can be collected
+     */
+    public byte[] putTile(int zoom, int x, int y, byte[] bytes) {
+        long hash = TileHash.of(bytes);
+        synchronized (tiles) {
+            SharedTile shared = tilesByContent.get(hash);
+            if (shared == null || !Arrays.equals(shared.bytes, bytes)) {
+                shared = new SharedTile(bytes, hash);
+                if (!tilesByContent.containsKey(hash)) {
+                    tilesByContent.put(hash, shared);
+                }
+            }
+
+            SharedTile previous = tiles.put(TileKey.of(zoom, x, y), shared);
+            if (previous != shared) {
+                if (shared.refs++ == 0) {
+                    tileBytes += shared.bytes.length;
+                    uniqueTiles++;
+                }
+                if (previous != null) {
+                    release(previous);
+                }
+            }
+            trimTiles();
+            return shared.bytes;
+        }
+    }
+
+    private void release(SharedTile shared) {
+        if (--shared.refs > 0) {
+            return;
+        }
+        tileBytes -= shared.bytes.length;
+        uniqueTiles--;
+        if (tilesByContent.get(shared.hash) == shared) {
+            tilesByContent.remove(shared.hash);
+        }
+    }
+
+    public int getTextureCount() {
+        return textures.size();
+    }
+
+    /**
+     * @return number of distinct textures, lower than {@link #getTextureCount()} if tiles share them
+     */
+    public int getUniqueTextureCount() {
+        return uniqueTextures;
+    }
+
+    /**
+     * @return cached tiles per uploaded texture, 1 if nothing is shared
+     */
+    public double getTextureDedupRatio() {
+        return uniqueTextures > 0 ? (double) textures.size() / uniqueTextures : 1;
+    }
+
+    public long getTextureBytes() {
+        return textureBytes;
+    }
+
+    public TileAtlas getAtlas() {
+        return atlas;
+    }
+
+    public long getTileBytes() {
+        synchronized (tiles) {
+            return tileBytes;
+        }
+    }
+
+    /**
+     * @return cached encoded tiles per distinct byte array, 1 if nothing is shared
+     */
+    public double getTileDedupRatio() {
+        synchronized (tiles) {
+            return uniqueTiles > 0 ? (double) tiles.size() / uniqueTiles : 1;
+        }
+    }
+
+    private void trimTextures() {
+        // the most recently used texture is kept even if it alone is over the budget
+        while (textureBytes > maxTextureBytes && textures.size() > 1) {
+            release(textures.removeEldest());
+        }
+    }
+
+    private void trimTiles() {
+        while (tileBytes > maxTileBytes && tiles.size() > 0) {
+            release(tiles.removeEldest());
+        }
+    }
+
+    private static long getTextureBytes(TextureRegion region) {
+        if (region instanceof TileAtlas.Slot) {
+            // atlas pages are RGBA8888
+            return (long) region.getRegionWidth() * region.getRegionHeight() * 4;
+        }
+        Texture texture = region.getTexture();
+        return (long) texture.getWidth() * texture.getHeight() * getBytesPerPixel(texture.getTextureData().getFormat());
+    }
+
+    private static int getBytesPerPixel(Pixmap.Format format) {
+        switch (format) {
+            case Alpha:
+            case Intensity:
+                return 1;
+            case LuminanceAlpha:
+            case RGB565:
+            case RGBA4444:
+                return 2;
+            case RGB888:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Disposes all cached textures and the atlas and drops all cached tiles.
+     */
+    @Override
+    public void dispose() {
+        SharedTexture texture;
+        while ((texture = textures.removeEldest()) != null) {
+            release(texture);
+        }
+        atlas.dispose();
+        synchronized (tiles) {
+            SharedTile tile;
+            while ((tile = tiles.removeEldest()) != null) {
+                release(tile);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+
+/**
+ * Receives the result of an asynchronous tile load. Both methods are called on the render thread.
+ */
+public interface TileCallback {
+    /**
+     * @param tile
+     * @param region the uploaded tile, owned by the tile cache
+     */
+    void tileLoaded(ZoomXY tile, TextureRegion region);
+
+    void tileFailed(ZoomXY tile, Exception e);
+}
@@ -0,0 +1,46 @@
+package com.mygdx.game.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hash of encoded tiles: the first 64 bits of their SHA-1. Used to store and upload identical
+ * tiles (water, forest, empty blocks) only once. A collision is unlikely but possible, so equal hashes
+ * are always confirmed by comparing the bytes.
+ */
+public final class TileHash {
+    // 0 marks an unknown hash
+    public static final long NONE = 0;
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 not available", e);
+            }
+        }
+    };
+
+    private TileHash() {
+    }
+
+    public static long of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Hashes the remaining bytes of the buffer without changing its position.
+     *
+     * @param buffer
+     * @return
+     */
+    public static long of(ByteBuffer buffer) {
+        MessageDigest digest = digests.get();
+        digest.update(buffer.duplicate());
+        long hash = ByteBuffer.wrap(digest.digest()).getLong();
+        return hash != NONE ? hash : 1;
+    }
+}
@@ -0,0 +1,250 @@
+package com.mygdx.game.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Shared HTTP client for tile requests.
+ * <p>
+ * Responses are always read to the end and closed, so {@link HttpURLConnection} can return the
+ * connection to its keep-alive pool and the next tile skips the TCP/TLS handshake. The number of
+ * concurrent requests per host is limited, requests time out, and 429/5xx responses are retried with
+ * jittered exponential backoff.
+ */
+public class TileHttpClient {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+    public static final int DEFAULT_MAX_RETRIES = 4;
+    private static final long BASE_BACKOFF = 250;
+    private static final long MAX_BACKOFF = 8000;
+
+    private static TileHttpClient defaultClient;
+
+    private final int maxConnectionsPerHost;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxRetries;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    public TileHttpClient(int maxConnectionsPerHost, int connectTimeout, int readTimeout, int maxRetries) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxRetries = maxRetries;
+
+        // size of the keep-alive pool per host, only read before the first connection is made
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerHost));
+        }
+    }
+
+    public static synchronized TileHttpClient getDefault() {
+        if (defaultClient == null) {
+            defaultClient = new TileHttpClient(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_RETRIES);
+        }
+        return defaultClient;
+    }
+
+    /**
+     * Response to a possibly conditional request. The body is null for 304 Not Modified.
+     */
+    public static class Response {
+        public final int status;
+        public final byte[] body;
+        public final String etag;
+        public final String lastModified;
+        // max-age from Cache-Control in seconds, -1 if not sent
+        public final long maxAge;
+
+        public Response(int status, byte[] body, String etag, String lastModified, long maxAge) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.maxAge = maxAge;
+        }
+
+        public boolean isNotModified() {
+            return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+    }
+
+    /**
+     * Downloads the resource, retrying on 429, 5xx and network errors.
+     *
+     * @param url
+     * @return response body
+     * @throws IOException if the request failed after all retries or returned another error status
+     */
+    public byte[] get(URL url) throws IOException {
+        return get(url, null, null).body;
+    }
+
+    /**
+     * Downloads the resource, sending If-None-Match/If-Modified-Since for the given validators.
+     * Retries on 429, 5xx and network errors.
+     *
+     * @param url
+     * @param etag         validator of the cached copy or null
+     * @param lastModified validator of the cached copy or null
+     * @return 200 response with body or 304 response without
+     * @throws IOException if the request failed after all retries or returned another error status
+     */
+    public Response get(URL url, String etag, String lastModified) throws IOException {
+        Semaphore permits = getPermits(url.getHost());
+        for (int attempt = 0; ; attempt++) {
+            long retryAfter = -1;
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a connection to " + url.getHost(), e);
+            }
+            int status;
+            try {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(connectTimeout);
+                connection.setReadTimeout(readTimeout);
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+                status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    byte[] body = null;
+                    if (status == HttpURLConnection.HTTP_OK) {
+                        body = readBody(connection);
+                    } else {
+                        discard(connection.getInputStream());
+                    }
+                    return new Response(status, body, connection.getHeaderField("ETag"),
+                            connection.getHeaderField("Last-Modified"), parseMaxAge(connection.getHeaderField("Cache-Control")));
+                }
+
+                // drain the error body so the connection can be reused
+                discard(connection.getErrorStream());
+                retryAfter = connection.getHeaderFieldInt("Retry-After", -1);
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                status = -1;
+            } finally {
+                permits.release();
+            }
+
+            if (status != -1 && (!isRetryable(status) || attempt >= maxRetries)) {
+                throw new IOException("HTTP " + status + " for " + url.getPath());
+            }
+            backoff(attempt, retryAfter);
+        }
+    }
+
+    private static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase();
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring("max-age=".length()));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    private Semaphore getPermits(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(maxConnectionsPerHost);
+            permits = hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    private static byte[] readBody(HttpURLConnection connection) throws IOException {
+        int contentLength = connection.getContentLength();
+        try (InputStream is = connection.getInputStream()) {
+            if (contentLength >= 0) {
+                byte[] body = new byte[contentLength];
+                int read = 0;
+                int n;
+                while (read < contentLength && (n = is.read(body, read, contentLength - read)) > 0) {
+                    read += n;
+                }
+                if (read < contentLength) {
+                    throw new IOException("Connection closed after " + read + " of " + contentLength + " bytes");
+                }
+                return body;
+            }
+
+            ByteArrayOutputStream bis = new ByteArrayOutputStream(64 * 1024);
+            byte[] bytebuff = new byte[8192];
+            int n;
+            while ((n = is.read(bytebuff)) > 0) {
+                bis.write(bytebuff, 0, n);
+            }
+            return bis.toByteArray();
+        }
+    }
+
+    private static void discard(InputStream is) {
+        if (is == null) {
+            return;
+        }
+        try (InputStream stream = is) {
+            byte[] bytebuff = new byte[4096];
+            while (stream.read(bytebuff) > 0) {
+                // skip
+            }
+        } catch (IOException ignored) {
+            // the connection is simply not reused
+        }
+    }
+
+    /**
+     * Sleeps before the next attempt: the server's Retry-After if given, otherwise a random delay up
+     * to an exponentially growing cap ("full jitter"), so parallel workers do not retry in lockstep.
+     */
+    private void backoff(int attempt, long retryAfterSeconds) throws IOException {
+        long delay;
+        if (retryAfterSeconds >= 0) {
+            delay = Math.min(retryAfterSeconds * 1000, MAX_BACKOFF);
+        } else {
+            long cap = Math.min(MAX_BACKOFF, BASE_BACKOFF << attempt);
+            synchronized (random) {
+                delay = (long) (random.nextDouble() * cap);
+            }
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while backing off", e);
+        }
+    }
+}
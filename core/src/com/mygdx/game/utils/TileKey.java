@@ -0,0 +1,39 @@
+package com.mygdx.game.utils;
+
+/**
+ * Packs a tile's zoom, x and y into a single long, so tiles can be used as keys of primitive maps
+ * without building a string per lookup.
+ * <p>
+ * Layout: 6 bits zoom, 29 bits x, 29 bits y, which covers every slippy zoom up to 29.
+ */
+public final class TileKey {
+    private static final int COORD_BITS = 29;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    private TileKey() {
+    }
+
+    public static long of(int zoom, int x, int y) {
+        return ((long) zoom << (2 * COORD_BITS)) | ((x & COORD_MASK) << COORD_BITS) | (y & COORD_MASK);
+    }
+
+    public static long of(ZoomXY tile) {
+        return of(tile.zoom, tile.x, tile.y);
+    }
+
+    public static int zoom(long key) {
+        return (int) (key >>> (2 * COORD_BITS));
+    }
+
+    public static int x(long key) {
+        return (int) ((key >>> COORD_BITS) & COORD_MASK);
+    }
+
+    public static int y(long key) {
+        return (int) (key & COORD_MASK);
+    }
+
+    public static String toString(long key) {
+        return zoom(key) + "/" + x(key) + "/" + y(key);
+    }
+}
@@ -0,0 +1,285 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.LongMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches and decodes map tiles on a bounded pool of worker threads.
+ * Textures can only be created on the render thread, so decoded tiles are handed to the
+ * {@link TileUploader}, which uploads a limited number of them per frame.
+ * <p>
+ * Waiting requests are kept in a priority queue, lowest priority value first. When the camera moves,
+ * {@link #reprioritize} ranks the waiting loads again and cancels those that are no longer needed,
+ * before they use bandwidth.
+ */
+public class TileLoader implements Disposable {
+    public static final int DEFAULT_THREADS = 6;
+    // for loads that are needed right away
+    public static final float URGENT_PRIORITY = 0;
+    // for revalidations and other work that can wait for all tile loads
+    public static final float BACKGROUND_PRIORITY = Float.MAX_VALUE;
+
+    /**
+     * Ranks a waiting tile load.
+     */
+    public interface TilePriority {
+        /**
+         * @return lower values are loaded first, a negative value cancels the load
+         */
+        float getPriority(int zoom, int x, int y);
+    }
+
+    private final ThreadPoolExecutor executor;
+    // loads in progress, guarded by itself
+    private final LongMap<PendingLoad> pendingLoads = new LongMap<>();
+    // reused by reprioritize, render thread only
+    private final List<Runnable> waiting = new ArrayList<>();
+    private final AtomicInteger cancelledLoads = new AtomicInteger();
+
+    private static class PendingLoad {
+        final ZoomXY tile;
+        final List<TileCallback> callbacks = new ArrayList<>();
+        PrioritizedTask future;
+
+        PendingLoad(ZoomXY tile) {
+            this.tile = tile;
+        }
+    }
+
+    /**
+     * Task of the priority queue. The priority is only changed while the task is out of the queue.
+     */
+    private static class PrioritizedTask extends FutureTask<byte[]> implements Comparable<PrioritizedTask> {
+        private static final AtomicLong sequence = new AtomicLong();
+
+        // set for loads that can be reprioritized
+        final ZoomXY tile;
+        // keeps requests of equal priority in order
+        final long order = sequence.getAndIncrement();
+        float priority;
+
+        PrioritizedTask(Callable<byte[]> callable, ZoomXY tile, float priority) {
+            super(callable);
+            this.tile = tile;
+            this.priority = priority;
+        }
+
+        PrioritizedTask(Runnable runnable, float priority) {
+            super(runnable, null);
+            this.tile = null;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int result = Float.compare(priority, other.priority);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+    }
+
+    public TileLoader(int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "tile-loader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // reprioritize puts tasks straight back into the queue, the workers have to exist already
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Fetches the raw tile bytes on a worker thread, ahead of all waiting loads.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return future holding the encoded tile
+     */
+    public Future<byte[]> fetch(final int zoom, final int x, final int y) {
+        PrioritizedTask task = new PrioritizedTask(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return MapRasterTiles.getRasterTileBytes(zoom, x, y);
+            }
+        }, null, URGENT_PRIORITY);
+        executor.execute(task);
+        return task;
+    }
+
+    public Future<byte[]> load(int zoom, int x, int y, TileCallback callback) {
+        return load(zoom, x, y, URGENT_PRIORITY, callback);
+    }
+
+    /**
+     * Fetches and decodes the tile on a worker thread, then uploads it on the render thread into
+     * the tile cache and notifies the callback there. If the tile is already being loaded the
+     * callback joins that load, so the tile is fetched, decoded and uploaded only once.
+     * A cancelled load is reported to the callback as a {@link CancellationException}.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param priority lower values are loaded first
+     * @param callback
+     * @return future holding the encoded tile
+     */
+    public Future<byte[]> load(final int zoom, final int x, final int y, float priority, TileCallback callback) {
+        final long tileKey = TileKey.of(zoom, x, y);
+        synchronized (pendingLoads) {
+            PendingLoad pendingLoad = pendingLoads.get(tileKey);
+            if (pendingLoad != null) {
+                pendingLoad.callbacks.add(callback);
+                PrioritizedTask task = pendingLoad.future;
+                // move it up if it is still waiting
+                if (priority < task.priority && executor.getQueue().remove(task)) {
+                    task.priority = priority;
+                    executor.getQueue().add(task);
+                }
+                return task;
+            }
+            pendingLoad = new PendingLoad(new ZoomXY(zoom, x, y));
+            pendingLoad.callbacks.add(callback);
+            pendingLoads.put(tileKey, pendingLoad);
+
+            final PendingLoad load = pendingLoad;
+            load.future = new PrioritizedTask(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    try {
+                        byte[] pixelData = MapRasterTiles.getRasterTileBytes(zoom, x, y);
+                        long hash = TileHash.of(pixelData);
+                        Pixmap pixmap = new Pixmap(pixelData, 0, pixelData.length);
+                        MapRasterTiles.getTileUploader().enqueue(load.tile, hash, pixmap, new TileUploader.UploadListener() {
+                            @Override
+                            public void uploaded(ZoomXY tile, TextureRegion region) {
+                                for (TileCallback tileCallback : finish(tileKey, load)) {
+                                    tileCallback.tileLoaded(tile, region);
+                                }
+                            }
+                        });
+                        return pixelData;
+                    } catch (final Exception e) {
+                        Gdx.app.postRunnable(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (TileCallback tileCallback : finish(tileKey, load)) {
+                                    tileCallback.tileFailed(load.tile, e);
+                                }
+                            }
+                        });
+                        throw e;
+                    }
+                }
+            }, load.tile, priority);
+            executor.execute(load.future);
+            return load.future;
+        }
+    }
+
+    private List<TileCallback> finish(long tileKey, PendingLoad load) {
+        synchronized (pendingLoads) {
+            if (pendingLoads.get(tileKey) == load) {
+                pendingLoads.remove(tileKey);
+            }
+            return load.callbacks;
+        }
+    }
+
+    /**
+     * Ranks all waiting loads again, e.g. after the camera moved, and cancels the ones the priority
+     * function rejects. Loads that already started are not affected. Render thread only, callbacks of
+     * cancelled loads are called before this returns.
+     *
+     * @param priority
+     */
+    public void reprioritize(TilePriority priority) {
+        waiting.clear();
+        executor.getQueue().drainTo(waiting);
+        for (int i = 0; i < waiting.size(); i++) {
+            PrioritizedTask task = (PrioritizedTask) waiting.get(i);
+            if (task.tile == null) {
+                continue;
+            }
+            float newPriority = priority.getPriority(task.tile.zoom, task.tile.x, task.tile.y);
+            if (newPriority < 0) {
+                cancel(task);
+                waiting.set(i, null);
+            } else {
+                task.priority = newPriority;
+            }
+        }
+        for (Runnable task : waiting) {
+            if (task != null) {
+                executor.getQueue().add(task);
+            }
+        }
+        waiting.clear();
+    }
+
+    private void cancel(PrioritizedTask task) {
+        task.cancel(false);
+        cancelledLoads.incrementAndGet();
+        long tileKey = TileKey.of(task.tile);
+        PendingLoad load;
+        synchronized (pendingLoads) {
+            load = pendingLoads.get(tileKey);
+            if (load == null || load.future != task) {
+                return;
+            }
+            pendingLoads.remove(tileKey);
+        }
+        CancellationException e = new CancellationException("Tile " + task.tile + " is no longer needed");
+        for (TileCallback tileCallback : load.callbacks) {
+            tileCallback.tileFailed(load.tile, e);
+        }
+    }
+
+    /**
+     * @return number of tile requests waiting for a worker
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of loads cancelled by {@link #reprioritize} so far
+     */
+    public int getCancelledLoads() {
+        return cancelledLoads.get();
+    }
+
+    /**
+     * Runs a background task, e.g. a tile revalidation, on the worker pool after all waiting loads.
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        executor.execute(new PrioritizedTask(task, BACKGROUND_PRIORITY));
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+    }
+}
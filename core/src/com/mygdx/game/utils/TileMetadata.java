@@ -0,0 +1,43 @@
+package com.mygdx.game.utils;
+
+/**
+ * Freshness information of a cached tile: the HTTP validators it was served with and when it was
+ * fetched. Validators are null if the server did not send them.
+ */
+public class TileMetadata {
+    // how long a tile is fresh if the server does not send Cache-Control: max-age
+    public static final long DEFAULT_TTL = 7L * 24 * 60 * 60 * 1000;
+
+    public String etag;
+    public String lastModified;
+    public long fetchedAt;
+    public long expiresAt;
+
+    public TileMetadata(String etag, String lastModified, long fetchedAt, long expiresAt) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.fetchedAt = fetchedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Metadata of a tile fetched just now.
+     *
+     * @param etag
+     * @param lastModified
+     * @param maxAge max-age from Cache-Control in seconds, negative if not sent
+     * @return
+     */
+    public static TileMetadata fetchedNow(String etag, String lastModified, long maxAge) {
+        long now = System.currentTimeMillis();
+        return new TileMetadata(etag, lastModified, now, now + (maxAge >= 0 ? maxAge * 1000 : DEFAULT_TTL));
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    public String toString() {
+        return "etag=" + etag + ", lastModified=" + lastModified + ", fetchedAt=" + fetchedAt + ", expiresAt=" + expiresAt;
+    }
+}
@@ -0,0 +1,508 @@
+package com.mygdx.game.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind front of the {@link TileStore}. Callers only queue writes, a background thread
+ * appends them to a journal, forces it to disk and from time to time compacts the journal into the
+ * store.
+ * <p>
+ * The journal is a sequence of length and CRC32 prefixed records. On open, the valid records of a
+ * journal left behind by a crash are replayed into the store and the rest, a record that was only
+ * partly written, is dropped. Writing a journal record again is harmless, so a crash during a
+ * compaction just replays the same records on the next start.
+ * <p>
+ * The store is opened on the background thread too, so neither opening nor writing ever blocks the
+ * render thread. Reads wait for the store to open and are meant for worker threads; tiles that are
+ * still waiting for compaction are served from memory.
+ */
+public class TilePersister {
+    public static final long COMPACT_BYTES = 8L * 1024 * 1024;
+    public static final long COMPACT_INTERVAL = 30000;
+    private static final int MAGIC = 0x454d424a; // "EMBJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // larger records can only come from a corrupt length
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final byte PUT = 1;
+    private static final byte METADATA = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Write {
+        final byte type;
+        final int zoom;
+        final int x;
+        final int y;
+        // null for metadata updates
+        final byte[] bytes;
+        final TileMetadata metadata;
+
+        Write(byte type, int zoom, int x, int y, byte[] bytes, TileMetadata metadata) {
+            this.type = type;
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.bytes = bytes;
+            this.metadata = metadata;
+        }
+    }
+
+    // tells the thread to compact and close
+    private static final Write CLOSE = new Write((byte) 0, 0, 0, 0, null, null);
+
+    private final String path;
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    // latest write of every tile that is not compacted into the store yet
+    private final ConcurrentHashMap<Long, Write> pending = new ConcurrentHashMap<>();
+    private final CountDownLatch opened = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    // set once opened
+    private volatile TileStore store;
+    private volatile boolean failed;
+
+    // persister thread only
+    private RandomAccessFile journalFile;
+    private FileChannel journal;
+    private long journalLength;
+    private final List<Write> journaled = new ArrayList<>();
+    private long lastCompaction;
+
+    /**
+     * Starts the persister thread, which opens the store and recovers its journal.
+     *
+     * @param path path of the store files without extension
+     */
+    public TilePersister(String path) {
+        this.path = path;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TilePersister.this.run();
+            }
+        }, "tile-persister");
+        // not a daemon, so the last compaction finishes after the application exits
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            open();
+        } catch (IOException e) {
+            System.out.println("Error loading tile cache: " + e.getMessage());
+            failed = true;
+            closeFiles();
+            queue.clear();
+            pending.clear();
+            closed.countDown();
+            return;
+        } finally {
+            opened.countDown();
+        }
+
+        try {
+            List<Write> batch = new ArrayList<>();
+            boolean closing = false;
+            while (!closing) {
+                Write write = queue.poll(COMPACT_INTERVAL, TimeUnit.MILLISECONDS);
+                if (write != null) {
+                    batch.add(write);
+                    queue.drainTo(batch);
+                }
+                for (Write queued : batch) {
+                    if (queued == CLOSE) {
+                        closing = true;
+                    } else {
+                        append(queued);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    // a tile only counts as saved once its record is on disk
+                    journal.force(false);
+                    batch.clear();
+                }
+                if (closing || journalLength > COMPACT_BYTES
+                        || !journaled.isEmpty() && System.currentTimeMillis() - lastCompaction > COMPACT_INTERVAL) {
+                    compact();
+                }
+            }
+            System.out.println("Tile Cache Saved: " + store.size() + " tiles");
+        } catch (IOException e) {
+            System.out.println("Error saving tile cache: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeFiles();
+            closed.countDown();
+        }
+    }
+
+    private void open() throws IOException {
+        TileStore opening = new TileStore(path);
+        try {
+            journalFile = new RandomAccessFile(new File(path + ".journal"), "rw");
+            journal = journalFile.getChannel();
+            recover(opening);
+        } catch (IOException e) {
+            opening.close();
+            throw e;
+        }
+        lastCompaction = System.currentTimeMillis();
+        store = opening;
+        System.out.println("Tile Cache Loaded: " + opening.size() + " tiles");
+    }
+
+    /**
+     * Replays the valid records of the journal into the store and empties the journal.
+     */
+    private void recover(TileStore store) throws IOException {
+        long size = journal.size();
+        if (size < HEADER_SIZE) {
+            writeHeader();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a tile journal: " + path + ".journal");
+        }
+
+        long position = HEADER_SIZE;
+        int records = 0;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            int length = recordHeader.getInt();
+            int checksum = recordHeader.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            apply(store, decode(payload));
+            position += RECORD_HEADER_SIZE + length;
+            records++;
+        }
+        if (records > 0 || position < size) {
+            store.flush();
+            System.out.println("Recovered " + records + " records from the tile journal"
+                    + (position < size ? ", dropped " + (size - position) + " bytes of an unfinished write" : ""));
+        }
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        journal.truncate(0);
+        write(header, 0);
+        journal.force(false);
+        journalLength = HEADER_SIZE;
+    }
+
+    private void append(Write write) throws IOException {
+        ByteBuffer payload = encode(write);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.limit());
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        recordHeader.putInt(payload.limit()).putInt((int) crc.getValue()).flip();
+        write(recordHeader, journalLength);
+        write(payload, journalLength + RECORD_HEADER_SIZE);
+        journalLength += RECORD_HEADER_SIZE + payload.limit();
+        journaled.add(write);
+    }
+
+    /**
+     * Applies the journaled writes to the store, forces it to disk and only then empties the journal.
+     */
+    private void compact() throws IOException {
+        if (journaled.isEmpty()) {
+            return;
+        }
+        for (Write write : journaled) {
+            apply(store, write);
+        }
+        store.flush();
+        writeHeader();
+        for (Write write : journaled) {
+            // a newer write of the tile stays pending until the next compaction
+            pending.remove(TileKey.of(write.zoom, write.x, write.y), write);
+        }
+        journaled.clear();
+        lastCompaction = System.currentTimeMillis();
+    }
+
+    private static void apply(TileStore store, Write write) throws IOException {
+        if (write.type == PUT) {
+            store.put(write.zoom, write.x, write.y, write.bytes, write.metadata);
+        } else {
+            store.updateMetadata(write.zoom, write.x, write.y, write.metadata);
+        }
+    }
+
+    private static ByteBuffer encode(Write write) {
+        byte[] etag = write.metadata.etag != null ? write.metadata.etag.getBytes(UTF_8) : null;
+        byte[] lastModified = write.metadata.lastModified != null ? write.metadata.lastModified.getBytes(UTF_8) : null;
+        ByteBuffer payload = ByteBuffer.allocate(1 + 12 + 16 + 4
+                + (etag != null ? etag.length : 0) + (lastModified != null ? lastModified.length : 0)
+                + (write.bytes != null ? 4 + write.bytes.length : 0));
+        payload.put(write.type).putInt(write.zoom).putInt(write.x).putInt(write.y)
+                .putLong(write.metadata.fetchedAt).putLong(write.metadata.expiresAt);
+        putString(payload, etag);
+        putString(payload, lastModified);
+        if (write.bytes != null) {
+            payload.putInt(write.bytes.length).put(write.bytes);
+        }
+        payload.flip();
+        return payload;
+    }
+
+    private static Write decode(ByteBuffer payload) throws IOException {
+        byte type = payload.get();
+        int zoom = payload.getInt();
+        int x = payload.getInt();
+        int y = payload.getInt();
+        long fetchedAt = payload.getLong();
+        long expiresAt = payload.getLong();
+        String etag = getString(payload);
+        String lastModified = getString(payload);
+        byte[] bytes = null;
+        if (type == PUT) {
+            bytes = new byte[payload.getInt()];
+            payload.get(bytes);
+        } else if (type != METADATA) {
+            throw new IOException("Unknown tile journal record " + type);
+        }
+        return new Write(type, zoom, x, y, bytes, new TileMetadata(etag, lastModified, fetchedAt, expiresAt));
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (journal.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + path + ".journal");
+            }
+        }
+        buffer.flip();
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            journal.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            if (store != null) {
+                store.close();
+            }
+            if (journalFile != null) {
+                journalFile.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error closing tile cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queues the tile for writing. Returns right away, the tile can be read back immediately.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param bytes
+     * @param metadata
+     */
+    public void put(int zoom, int x, int y, byte[] bytes, TileMetadata metadata) {
+        if (failed) {
+            return;
+        }
+        Write write = new Write(PUT, zoom, x, y, bytes, metadata);
+        pending.put(TileKey.of(zoom, x, y), write);
+        queue.add(write);
+    }
+
+    /**
+     * Queues new metadata for a stored tile, e.g. after a 304 response. Returns right away.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param metadata
+     */
+    public void updateMetadata(int zoom, int x, int y, TileMetadata metadata) {
+        if (failed) {
+            return;
+        }
+        Long tileKey = TileKey.of(zoom, x, y);
+        Write previous = pending.get(tileKey);
+        // keep the bytes of a tile that is not in the store yet
+        Write write = previous != null && previous.bytes != null
+                ? new Write(PUT, zoom, x, y, previous.bytes, metadata)
+                : new Write(METADATA, zoom, x, y, null, metadata);
+        pending.put(tileKey, write);
+        queue.add(write);
+    }
+
+    /**
+     * Returns the encoded tile or null if it is not stored. Waits for the store to open, so not for
+     * the render thread.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return
+     * @throws IOException
+     */
+    public byte[] get(int zoom, int x, int y) throws IOException {
+        Write write = pending.get(TileKey.of(zoom, x, y));
+        if (write != null && write.bytes != null) {
+            return write.bytes;
+        }
+        TileStore store = awaitStore();
+        return store != null ? store.get(zoom, x, y) : null;
+    }
+
+    /**
+     * Returns the metadata of a stored tile or null if it is not stored. Waits for the store to open.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return
+     */
+    public TileMetadata getMetadata(int zoom, int x, int y) {
+        Write write = pending.get(TileKey.of(zoom, x, y));
+        if (write != null) {
+            return write.metadata;
+        }
+        TileStore store = awaitStore();
+        return store != null ? store.getMetadata(zoom, x, y) : null;
+    }
+
+    /**
+     * Checks if the tile is stored or waiting to be written. Waits for the store to open.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return
+     */
+    public boolean contains(int zoom, int x, int y) {
+        Write write = pending.get(TileKey.of(zoom, x, y));
+        if (write != null && write.bytes != null) {
+            return true;
+        }
+        TileStore store = awaitStore();
+        return store != null && store.contains(zoom, x, y);
+    }
+
+    private TileStore awaitStore() {
+        try {
+            opened.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return store;
+    }
+
+    /**
+     * Waits for the store to open, not for the render thread.
+     *
+     * @return false if it could not be opened
+     */
+    public boolean awaitOpen() {
+        return awaitStore() != null;
+    }
+
+    /**
+     * @return true once the store is open, false while it is opening or if opening failed
+     */
+    public boolean isOpen() {
+        return store != null;
+    }
+
+    /**
+     * @return number of tiles in the store, 0 until it is open
+     */
+    public int size() {
+        TileStore store = this.store;
+        return store != null ? store.size() : 0;
+    }
+
+    /**
+     * @return stored tile bytes per byte on disk, 1 until the store is open
+     */
+    public double getDedupRatio() {
+        TileStore store = this.store;
+        return store != null ? store.getDedupRatio() : 1;
+    }
+
+    /**
+     * @return number of writes queued or journaled but not compacted into the store yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Asks the persister to write everything, compact the journal and close the store. Returns right
+     * away, the persister thread keeps the application alive until it is done.
+     */
+    public void close() {
+        queue.add(CLOSE);
+    }
+
+    /**
+     * Waits until the persister has closed the store.
+     *
+     * @param timeoutMillis
+     * @return false if it did not finish in time
+     */
+    public boolean awaitClosed(long timeoutMillis) {
+        try {
+            return closed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Predicts where the camera will be shortly, so the tiles it will need can be requested before they
+ * scroll into view.
+ * <p>
+ * The pan and zoom velocities are estimated from the camera movement of every frame, so panning,
+ * fling inertia, the arrow keys and zoom animations are all covered. A fling seeds the velocity
+ * directly, before the camera has moved. The camera position and zoom {@link #getLookahead()} seconds
+ * ahead are extrapolated from these velocities.
+ * <p>
+ * Also counts what happens to the prefetched tiles, so the look-ahead can be tuned: a hit is a
+ * prefetched tile that was later drawn, a wasted prefetch was loaded but released without being drawn
+ * and a cancelled one was dropped before it was loaded.
+ */
+public class TilePrefetcher {
+    public static final float DEFAULT_LOOKAHEAD = 0.4f;
+    // weight of the newest frame in the velocity estimate
+    private static final float SMOOTHING = 0.3f;
+    // below these the camera is treated as standing still, world units and zoom levels per second
+    private static final float MIN_SPEED = 20f;
+    private static final float MIN_ZOOM_SPEED = 0.1f;
+
+    private float lookahead = DEFAULT_LOOKAHEAD;
+
+    private boolean started;
+    private float lastX, lastY, lastZoom;
+    // world units per second and zoom levels (log2 of the camera zoom) per second
+    private float velocityX, velocityY, zoomVelocity;
+
+    private boolean predicting;
+    private float predictedX, predictedY, predictedZoom;
+
+    // prefetched tiles that were not drawn or released yet
+    private final LongMap<ZoomXY> outstanding = new LongMap<>();
+    private int requested, hits, wasted, cancelled;
+
+    /**
+     * Updates the velocity estimate and the prediction. Called once per frame.
+     *
+     * @param camera
+     * @param delta  seconds since the last frame
+     */
+    public void update(OrthographicCamera camera, float delta) {
+        float x = camera.position.x;
+        float y = camera.position.y;
+        float zoom = camera.zoom;
+        if (started && delta > 0) {
+            velocityX += SMOOTHING * ((x - lastX) / delta - velocityX);
+            velocityY += SMOOTHING * ((y - lastY) / delta - velocityY);
+            zoomVelocity += SMOOTHING * ((float) (Math.log(zoom / lastZoom) / Math.log(2)) / delta - zoomVelocity);
+        }
+        started = true;
+        lastX = x;
+        lastY = y;
+        lastZoom = zoom;
+
+        boolean panning = velocityX * velocityX + velocityY * velocityY > MIN_SPEED * MIN_SPEED;
+        boolean zooming = Math.abs(zoomVelocity) > MIN_ZOOM_SPEED;
+        predicting = panning || zooming;
+        if (predicting) {
+            predictedX = x + velocityX * lookahead;
+            predictedY = y + velocityY * lookahead;
+            predictedZoom = zoom * (float) Math.pow(2, zoomVelocity * lookahead);
+        }
+    }
+
+    /**
+     * Seeds the velocity from a fling, which predicts the motion before the camera starts moving.
+     *
+     * @param velocityX world units per second
+     * @param velocityY world units per second
+     */
+    public void fling(float velocityX, float velocityY) {
+        this.velocityX = velocityX;
+        this.velocityY = velocityY;
+    }
+
+    /**
+     * @return true if the camera is moving fast enough for a prediction
+     */
+    public boolean isPredicting() {
+        return predicting;
+    }
+
+    public float getPredictedX() {
+        return predictedX;
+    }
+
+    public float getPredictedY() {
+        return predictedY;
+    }
+
+    public float getPredictedZoom() {
+        return predictedZoom;
+    }
+
+    public float getLookahead() {
+        return lookahead;
+    }
+
+    /**
+     * @param lookahead how far ahead the camera is predicted, in seconds
+     */
+    public void setLookahead(float lookahead) {
+        this.lookahead = lookahead;
+    }
+
+    void prefetched(long tileKey, ZoomXY tile) {
+        outstanding.put(tileKey, tile);
+        requested++;
+    }
+
+    void shown(long tileKey) {
+        if (outstanding.size > 0 && outstanding.remove(tileKey) != null) {
+            hits++;
+        }
+    }
+
+    void released(long tileKey) {
+        if (outstanding.size > 0 && outstanding.remove(tileKey) != null) {
+            wasted++;
+        }
+    }
+
+    void cancelled(long tileKey) {
+        if (outstanding.size > 0 && outstanding.remove(tileKey) != null) {
+            cancelled++;
+        }
+    }
+
+    /**
+     * @return number of tiles requested because of a prediction
+     */
+    public int getRequestedCount() {
+        return requested;
+    }
+
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of prefetched tiles that were loaded but released without being drawn
+     */
+    public int getWastedCount() {
+        return wasted;
+    }
+
+    /**
+     * @return number of prefetched tiles that were cancelled before they were loaded
+     */
+    public int getCancelledCount() {
+        return cancelled;
+    }
+
+    /**
+     * @return share of the decided prefetches that were drawn, 0 before any was decided
+     */
+    public double getHitRate() {
+        int decided = hits + wasted + cancelled;
+        return decided == 0 ? 0 : hits / (double) decided;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("prefetched %d tiles, %d drawn, %d wasted, %d cancelled, %d open, hit rate %.0f%%",
+                requested, hits, wasted, cancelled, outstanding.size, getHitRate() * 100);
+    }
+}
@@ -0,0 +1,44 @@
+package com.mygdx.game.utils;
+
+import java.io.IOException;
+
+/**
+ * Source of raster map tiles, e.g. a tile API over HTTP or tiles on local disk.
+ * Called from the tile loader's worker threads, so implementations have to be thread safe.
+ */
+public interface TileProvider {
+    /**
+     * @return short name of the tile source, also used to name its persistent tile store
+     */
+    String getName();
+
+    /**
+     * @return width and height of the tiles in pixels
+     */
+    int getTileSize();
+
+    /**
+     * @return image format of the tiles, e.g. "png" or "jpg"
+     */
+    String getFormat();
+
+    /**
+     * @return true if tiles come over the network, they are then kept in the persistent tile store
+     * and revalidated when they expire
+     */
+    boolean isRemote();
+
+    /**
+     * Loads an encoded tile. Validators of a stored copy can be passed for a conditional request,
+     * local providers ignore them and always return the tile.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param etag         validator of the stored copy or null
+     * @param lastModified validator of the stored copy or null
+     * @return 200 response with body or 304 response without
+     * @throws IOException if the tile could not be loaded or does not exist
+     */
+    TileHttpClient.Response getTile(int zoom, int x, int y, String etag, String lastModified) throws IOException;
+}
@@ -0,0 +1,412 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.utils.LongMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Persistent tile cache made of two append-only files:
+ * <ul>
+ * <li>a pack file holding the encoded tiles back to back, read through a {@link MappedByteBuffer},</li>
+ * <li>an index file of records (zoom, x, y, offset, length, hash, fetchedAt, expiresAt, etag, lastModified).</li>
+ * </ul>
+ * Only the index is read into memory on open; tile bytes are copied out of the mapping on lookup,
+ * so only the pages of requested tiles are touched. New tiles are appended to both files, an existing
+ * file is never rewritten. If the same tile is written twice the last index record wins, which is also
+ * how refreshed metadata is stored.
+ * <p>
+ * Tiles are deduplicated by {@link TileHash}: a tile whose bytes are already in the pack file only gets
+ * an index record pointing at them.
+ */
+public class TileStore implements Closeable {
+    private static final int MAGIC = 0x454d4254; // "EMBT"
+    private static final int PACK_VERSION = 1;
+    // version 1 index records have no metadata and version 2 no hash, they are converted on open
+    private static final int INDEX_VERSION = 3;
+    private static final int HEADER_SIZE = 8;
+    private static final int INDEX_RECORD_V1_SIZE = 24;
+    private static final int INDEX_RECORD_FIXED_SIZE = 52;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile dataFile;
+    private final RandomAccessFile indexFile;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final LongMap<Entry> index = new LongMap<>();
+    // first entry of every distinct content, by hash
+    private final LongMap<Entry> contents = new LongMap<>();
+
+    private MappedByteBuffer mapped;
+    private long dataLength;
+    private long indexLength;
+    // sum of the lengths of all indexed tiles, including shared ones
+    private long tileBytes;
+
+    private static class Entry {
+        final int zoom;
+        final int x;
+        final int y;
+        final long offset;
+        final int length;
+        long hash;
+        final TileMetadata metadata;
+
+        Entry(int zoom, int x, int y, long offset, int length, long hash, TileMetadata metadata) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Opens the store, creating both files if they do not exist yet.
+     *
+     * @param path path of the pack file without extension
+     * @throws IOException
+     */
+    public TileStore(String path) throws IOException {
+        dataFile = new RandomAccessFile(new File(path + ".pack"), "rw");
+        indexFile = new RandomAccessFile(new File(path + ".idx"), "rw");
+        dataChannel = dataFile.getChannel();
+        indexChannel = indexFile.getChannel();
+
+        int packVersion = readHeader(dataChannel);
+        if (packVersion == 0) {
+            writeHeader(dataChannel, PACK_VERSION);
+        } else if (packVersion != PACK_VERSION) {
+            throw new IOException("Unsupported tile pack version " + packVersion);
+        }
+        dataLength = dataChannel.size();
+        mapped = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+
+        int indexVersion = readHeader(indexChannel);
+        if (indexVersion == 0) {
+            writeHeader(indexChannel, INDEX_VERSION);
+        } else if (indexVersion == 1) {
+            readIndexV1();
+            rewriteIndex();
+        } else if (indexVersion == 2 || indexVersion == INDEX_VERSION) {
+            readIndex(indexVersion);
+            if (indexVersion != INDEX_VERSION) {
+                rewriteIndex();
+            }
+        } else {
+            throw new IOException("Unsupported tile index version " + indexVersion);
+        }
+        indexLength = indexChannel.size();
+    }
+
+    /**
+     * @return version of the file or 0 if it is empty
+     */
+    private static int readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a tile store file");
+        }
+        return header.getInt();
+    }
+
+    private static void writeHeader(FileChannel channel, int version) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(version).flip();
+        channel.truncate(0);
+        write(channel, header, 0);
+    }
+
+    private void readIndexV1() throws IOException {
+        long records = (indexChannel.size() - HEADER_SIZE) / INDEX_RECORD_V1_SIZE;
+        ByteBuffer buffer = readFully(indexChannel, HEADER_SIZE, records * INDEX_RECORD_V1_SIZE);
+        for (long i = 0; i < records; i++) {
+            int zoom = buffer.getInt();
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            // unknown age, the tile is revalidated the next time it is used
+            addEntry(new Entry(zoom, x, y, offset, length, TileHash.NONE, new TileMetadata(null, null, 0, 0)));
+        }
+    }
+
+    private void readIndex(int version) throws IOException {
+        long size = indexChannel.size() - HEADER_SIZE;
+        ByteBuffer buffer = readFully(indexChannel, HEADER_SIZE, size);
+        int complete = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                int zoom = buffer.getInt();
+                int x = buffer.getInt();
+                int y = buffer.getInt();
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                long hash = version >= 3 ? buffer.getLong() : TileHash.NONE;
+                long fetchedAt = buffer.getLong();
+                long expiresAt = buffer.getLong();
+                String etag = getString(buffer);
+                String lastModified = getString(buffer);
+                addEntry(new Entry(zoom, x, y, offset, length, hash, new TileMetadata(etag, lastModified, fetchedAt, expiresAt)));
+                complete = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // a record was only partially written
+        }
+        if (complete < size) {
+            indexChannel.truncate(HEADER_SIZE + complete);
+        }
+    }
+
+    private void addEntry(Entry entry) {
+        // the index may be ahead of the pack file after a crash
+        if (entry.offset + entry.length <= dataLength) {
+            putEntry(entry);
+        }
+    }
+
+    private void putEntry(Entry entry) {
+        Entry previous = index.put(TileKey.of(entry.zoom, entry.x, entry.y), entry);
+        if (previous != null) {
+            tileBytes -= previous.length;
+        }
+        tileBytes += entry.length;
+        if (entry.hash != TileHash.NONE && !contents.containsKey(entry.hash)) {
+            contents.put(entry.hash, entry);
+        }
+    }
+
+    private void rewriteIndex() throws IOException {
+        // hash the tiles of older versions, so they can be shared by new ones
+        for (Entry entry : index.values()) {
+            if (entry.hash == TileHash.NONE) {
+                entry.hash = TileHash.of(slice(entry));
+                if (!contents.containsKey(entry.hash)) {
+                    contents.put(entry.hash, entry);
+                }
+            }
+        }
+        writeHeader(indexChannel, INDEX_VERSION);
+        long position = HEADER_SIZE;
+        for (Entry entry : index.values()) {
+            ByteBuffer record = encode(entry);
+            write(indexChannel, record, position);
+            position += record.limit();
+        }
+    }
+
+    public synchronized boolean contains(int zoom, int x, int y) {
+        return index.containsKey(TileKey.of(zoom, x, y));
+    }
+
+    /**
+     * Returns the encoded tile or null if it is not stored.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return
+     * @throws IOException
+     */
+    public synchronized byte[] get(int zoom, int x, int y) throws IOException {
+        Entry entry = index.get(TileKey.of(zoom, x, y));
+        if (entry == null) {
+            return null;
+        }
+        byte[] bytes = new byte[entry.length];
+        slice(entry).get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns a view of the tile's bytes in the mapped pack file.
+     */
+    private ByteBuffer slice(Entry entry) throws IOException {
+        if (entry.offset + entry.length > mapped.capacity()) {
+            // tiles were appended since the file was mapped
+            mapped = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position((int) entry.offset);
+        buffer.limit((int) entry.offset + entry.length);
+        return buffer;
+    }
+
+    /**
+     * Returns the metadata of a stored tile or null if it is not stored.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return
+     */
+    public synchronized TileMetadata getMetadata(int zoom, int x, int y) {
+        Entry entry = index.get(TileKey.of(zoom, x, y));
+        return entry != null ? entry.metadata : null;
+    }
+
+    /**
+     * Appends the encoded tile to the pack file and records it in the index. If the same bytes are
+     * already stored for another tile, only the index record is written.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param bytes
+     * @param metadata
+     * @throws IOException
+     */
+    public synchronized void put(int zoom, int x, int y, byte[] bytes, TileMetadata metadata) throws IOException {
+        long hash = TileHash.of(bytes);
+        Entry content = contents.get(hash);
+        if (content != null && content.length == bytes.length && slice(content).equals(ByteBuffer.wrap(bytes))) {
+            appendEntry(new Entry(zoom, x, y, content.offset, content.length, hash, metadata));
+            return;
+        }
+
+        long offset = dataLength;
+        write(dataChannel, ByteBuffer.wrap(bytes), offset);
+        dataLength += bytes.length;
+
+        appendEntry(new Entry(zoom, x, y, offset, bytes.length, hash, metadata));
+    }
+
+    /**
+     * Records new metadata for a stored tile without touching its bytes, e.g. after a 304 response.
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @param metadata
+     * @throws IOException
+     */
+    public synchronized void updateMetadata(int zoom, int x, int y, TileMetadata metadata) throws IOException {
+        Entry entry = index.get(TileKey.of(zoom, x, y));
+        if (entry != null) {
+            appendEntry(new Entry(zoom, x, y, entry.offset, entry.length, entry.hash, metadata));
+        }
+    }
+
+    private void appendEntry(Entry entry) throws IOException {
+        ByteBuffer record = encode(entry);
+        write(indexChannel, record, indexLength);
+        indexLength += record.limit();
+
+        putEntry(entry);
+    }
+
+    private static ByteBuffer encode(Entry entry) {
+        byte[] etag = entry.metadata.etag != null ? entry.metadata.etag.getBytes(UTF_8) : null;
+        byte[] lastModified = entry.metadata.lastModified != null ? entry.metadata.lastModified.getBytes(UTF_8) : null;
+        ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_FIXED_SIZE
+                + (etag != null ? etag.length : 0) + (lastModified != null ? lastModified.length : 0));
+        record.putInt(entry.zoom).putInt(entry.x).putInt(entry.y).putLong(entry.offset).putInt(entry.length)
+                .putLong(entry.hash).putLong(entry.metadata.fetchedAt).putLong(entry.metadata.expiresAt);
+        putString(record, etag);
+        putString(record, lastModified);
+        record.flip();
+        return record;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads the index into the heap instead of mapping it, a mapped file could not be truncated on Windows.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    public synchronized int size() {
+        return index.size;
+    }
+
+    /**
+     * @return number of distinct tile contents in the pack file
+     */
+    public synchronized int getContentCount() {
+        return contents.size;
+    }
+
+    /**
+     * @return bytes of all stored tiles as if every tile had its own copy
+     */
+    public synchronized long getTileBytes() {
+        return tileBytes;
+    }
+
+    /**
+     * @return bytes of tile data in the pack file
+     */
+    public synchronized long getStoredBytes() {
+        return dataLength - HEADER_SIZE;
+    }
+
+    /**
+     * @return tile bytes per stored byte, 1 if nothing is shared
+     */
+    public synchronized double getDedupRatio() {
+        long stored = getStoredBytes();
+        return stored > 0 ? (double) tileBytes / stored : 1;
+    }
+
+    /**
+     * Forces written tiles to the storage device.
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        dataChannel.force(false);
+        indexChannel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        dataFile.close();
+        indexFile.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.mygdx.game.utils;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Uploads tiles decoded by worker threads to the GPU on the render thread.
+ * <p>
+ * Workers {@link #enqueue} decoded Pixmaps from any thread. {@link #update()} is called once per frame
+ * and uploads at most {@code maxUploadsPerFrame} of them into slots of the {@link TileAtlas}, stopping
+ * early when the frame budget is used up, so a burst of arriving tiles is spread over several frames
+ * instead of causing a hitch. Pixmaps are disposed right after upload. A tile whose content is already
+ * uploaded for another tile shares that slot instead of being uploaded again.
+ */
+public class TileUploader implements Disposable {
+    public static final int DEFAULT_MAX_UPLOADS_PER_FRAME = 4;
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000;
+
+    public interface UploadListener {
+        void uploaded(ZoomXY tile, TextureRegion region);
+    }
+
+    private static class Upload {
+        final ZoomXY tile;
+        final long hash;
+        final Pixmap pixmap;
+        final UploadListener listener;
+        final boolean replaceOnly;
+
+        Upload(ZoomXY tile, long hash, Pixmap pixmap, UploadListener listener, boolean replaceOnly) {
+            this.tile = tile;
+            this.hash = hash;
+            this.pixmap = pixmap;
+            this.listener = listener;
+            this.replaceOnly = replaceOnly;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Upload> queue = new ConcurrentLinkedQueue<>();
+    private final int maxUploadsPerFrame;
+    private final long frameBudgetNanos;
+
+    public TileUploader(int maxUploadsPerFrame, long frameBudgetNanos) {
+        this.maxUploadsPerFrame = maxUploadsPerFrame;
+        this.frameBudgetNanos = frameBudgetNanos;
+    }
+
+    /**
+     * Queues a decoded tile for upload into the tile cache. Can be called from any thread, the
+     * uploader takes ownership of the pixmap.
+     *
+     * @param tile
+     * @param hash     {@link TileHash} of the encoded tile or {@link TileHash#NONE}
+     * @param pixmap
+     * @param listener notified on the render thread after upload, may be null
+     */
+    public void enqueue(ZoomXY tile, long hash, Pixmap pixmap, UploadListener listener) {
+        queue.add(new Upload(tile, hash, pixmap, listener, false));
+    }
+
+    /**
+     * Queues new content for a tile that is only uploaded if an older texture of it is still cached.
+     *
+     * @param tile
+     * @param hash   {@link TileHash} of the encoded tile or {@link TileHash#NONE}
+     * @param pixmap
+     */
+    public void enqueueReplacement(ZoomXY tile, long hash, Pixmap pixmap) {
+        queue.add(new Upload(tile, hash, pixmap, null, true));
+    }
+
+    /**
+     * Uploads queued tiles within this frame's budget. Render thread only.
+     *
+     * @return number of uploaded tiles
+     */
+    public int update() {
+        TileCache cache = MapRasterTiles.getTileCache();
+        long start = TimeUtils.nanoTime();
+        int uploads = 0;
+        while (uploads < maxUploadsPerFrame && TimeUtils.nanoTime() - start < frameBudgetNanos) {
+            Upload upload = queue.poll();
+            if (upload == null) {
+                break;
+            }
+            ZoomXY tile = upload.tile;
+            if (upload.replaceOnly && cache.getRegion(tile.zoom, tile.x, tile.y) == null) {
+                upload.pixmap.dispose();
+                continue;
+            }
+
+            TextureRegion region = cache.shareRegion(tile.zoom, tile.x, tile.y, upload.hash);
+            if (region == null) {
+                region = cache.putRegion(tile.zoom, tile.x, tile.y, upload.hash, upload.pixmap);
+                uploads++;
+            }
+            upload.pixmap.dispose();
+            if (upload.listener != null) {
+                upload.listener.uploaded(tile, region);
+            }
+        }
+        return uploads;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Disposes the pixmaps that were not uploaded.
+     */
+    @Override
+    public void dispose() {
+        Upload upload;
+        while ((upload = queue.poll()) != null) {
+            upload.pixmap.dispose();
+        }
+    }
+}
@@ -2,6 +2,11 @@ package com.mygdx.game;
 
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
+import com.mygdx.game.utils.DirectoryTileProvider;
+import com.mygdx.game.utils.MapRasterTiles;
+
+import java.io.File;
+import java.io.IOException;
 
 // Please note that on macOS your application needs to be started with the -XstartOnFirstThread JVM argument
 public class DesktopLauncher {
@@ -11,6 +16,22 @@ public class DesktopLauncher {
 		config.setTitle("EMB Map Maribor");
 		config.setWindowedMode(900, 900);
 		config.setResizable(false);
+		// kiosks have plenty of memory, keep more tiles around
+		MapRasterTiles.setCacheLimits(256L * 1024 * 1024, 128L * 1024 * 1024);
+		// -Dtiles=<file.mbtiles or z/x/y directory> serves tiles from local disk instead of the tile API
+		String tiles = System.getProperty("tiles");
+		if (tiles != null) {
+			try {
+				int tileSize = Integer.parseInt(System.getProperty("tiles.size", "256"));
+				if (tiles.endsWith(".mbtiles")) {
+					MapRasterTiles.setTileProvider(new MBTilesTileProvider(new File(tiles), tileSize));
+				} else {
+					MapRasterTiles.setTileProvider(new DirectoryTileProvider(new File(tiles), tileSize, System.getProperty("tiles.format", "png")));
+				}
+			} catch (IOException e) {
+				System.out.println("Error opening local tiles: " + e.getMessage());
+			}
+		}
 		new Lwjgl3Application(new EMBMap(), config);
 	}
 }
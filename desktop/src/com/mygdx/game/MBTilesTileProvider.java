@@ -0,0 +1,100 @@
+package com.mygdx.game;
+
+import com.mygdx.game.utils.TileHttpClient;
+import com.mygdx.game.utils.TileProvider;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Tile provider reading tiles from an MBTiles file, a SQLite database of encoded tiles.
+ * <p>
+ * https://github.com/mapbox/mbtiles-spec: rows are numbered from the south (TMS), so the slippy y is
+ * flipped. The format comes from the metadata table, the tile size is not part of the spec and has to
+ * be given.
+ */
+public class MBTilesTileProvider implements TileProvider {
+    private final File file;
+    private final int tileSize;
+    private final String format;
+    private final Connection connection;
+    // guarded by this, SQLite connections should not be used by several threads at once
+    private final PreparedStatement tileQuery;
+
+    public MBTilesTileProvider(File file, int tileSize) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No MBTiles file " + file);
+        }
+        this.file = file;
+        this.tileSize = tileSize;
+        try {
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+            format = readFormat(connection);
+            tileQuery = connection.prepareStatement(
+                    "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+        } catch (SQLException e) {
+            throw new IOException("Error opening " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String readFormat(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT value FROM metadata WHERE name = 'format'");
+             ResultSet result = statement.executeQuery()) {
+            // png is the default of the spec
+            return result.next() ? result.getString(1) : "png";
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "mbtiles-" + file.getName();
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public synchronized TileHttpClient.Response getTile(int zoom, int x, int y, String etag, String lastModified) throws IOException {
+        try {
+            tileQuery.setInt(1, zoom);
+            tileQuery.setInt(2, x);
+            tileQuery.setInt(3, (1 << zoom) - 1 - y);
+            try (ResultSet result = tileQuery.executeQuery()) {
+                if (!result.next()) {
+                    throw new FileNotFoundException("No tile " + zoom + "/" + x + "/" + y + " in " + file);
+                }
+                return new TileHttpClient.Response(HttpURLConnection.HTTP_OK, result.getBytes(1), null, null, -1);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Error reading tile " + zoom + "/" + x + "/" + y + " from " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            tileQuery.close();
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("Error closing " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.mygdx.game;
+
+import com.mygdx.game.utils.MapRasterTiles;
+import com.mygdx.game.utils.ZoomXY;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads every tile of a lat/lng bounding box and zoom range into the persistent tile cache, so the
+ * map can start offline. Tiles that are already stored are skipped, so an interrupted run can simply
+ * be started again to resume.
+ * <p>
+ * Usage: TileSeeder [minLat minLng maxLat maxLng [minZoom maxZoom [threads [requestsPerSecond]]]]
+ * <p>
+ * Without arguments the centre of Maribor is seeded at zooms 12 to 18. The cache is written to the
+ * working directory, the same one the game reads it from.
+ */
+public class TileSeeder {
+    private static final double[] MARIBOR_CENTRE = {46.545, 15.615, 46.570, 15.665};
+    private static final int DEFAULT_THREADS = 4;
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        double minLat = args.length >= 4 ? Double.parseDouble(args[0]) : MARIBOR_CENTRE[0];
+        double minLng = args.length >= 4 ? Double.parseDouble(args[1]) : MARIBOR_CENTRE[1];
+        double maxLat = args.length >= 4 ? Double.parseDouble(args[2]) : MARIBOR_CENTRE[2];
+        double maxLng = args.length >= 4 ? Double.parseDouble(args[3]) : MARIBOR_CENTRE[3];
+        int minZoom = args.length >= 6 ? Integer.parseInt(args[4]) : 12;
+        int maxZoom = args.length >= 6 ? Integer.parseInt(args[5]) : 18;
+        int threads = args.length >= 7 ? Integer.parseInt(args[6]) : DEFAULT_THREADS;
+        double requestsPerSecond = args.length >= 8 ? Double.parseDouble(args[7]) : DEFAULT_REQUESTS_PER_SECOND;
+
+        // tiles go straight to disk, there is nothing to keep in memory
+        MapRasterTiles.setCacheLimits(0, 0);
+        MapRasterTiles.loadTileCache();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                MapRasterTiles.saveTileCache();
+                // the JVM does not wait for the persister once shutdown hooks run
+                MapRasterTiles.awaitTileCacheSaved(60000);
+            }
+        }));
+
+        List<ZoomXY> tiles = getTiles(minLat, minLng, maxLat, maxLng, minZoom, maxZoom);
+        List<ZoomXY> missing = new ArrayList<>();
+        for (ZoomXY tile : tiles) {
+            if (!MapRasterTiles.isTileStored(tile.zoom, tile.x, tile.y)) {
+                missing.add(tile);
+            }
+        }
+        System.out.println("Seeding " + tiles.size() + " tiles, " + (tiles.size() - missing.size()) + " already stored");
+
+        final RateLimiter rateLimiter = new RateLimiter(requestsPerSecond);
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final int total = missing.size();
+        long start = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (final ZoomXY tile : missing) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rateLimiter.acquire();
+                        MapRasterTiles.getRasterTileBytes(tile.zoom, tile.x, tile.y);
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        System.out.println("Error fetching tile " + tile + ": " + e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    int count = done.incrementAndGet();
+                    if (count % 100 == 0 || count == total) {
+                        System.out.println(count + "/" + total + " tiles");
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        System.out.println("Fetched " + (total - failed.get()) + " tiles in " + (System.currentTimeMillis() - start) / 1000 + " s, "
+                + failed.get() + " failed, run again to retry them");
+        System.out.println("Cache holds " + MapRasterTiles.getTileCacheSize() + " tiles, dedup ratio " + MapRasterTiles.getTileCacheDedupRatio());
+    }
+
+    /**
+     * Enumerates all tiles covering the bounding box at every zoom of the range.
+     */
+    static List<ZoomXY> getTiles(double minLat, double minLng, double maxLat, double maxLng, int minZoom, int maxZoom) {
+        List<ZoomXY> tiles = new ArrayList<>();
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            // tile y grows to the south
+            ZoomXY topLeft = MapRasterTiles.getTileNumber(maxLat, minLng, zoom);
+            ZoomXY bottomRight = MapRasterTiles.getTileNumber(minLat, maxLng, zoom);
+            for (int y = topLeft.y; y <= bottomRight.y; y++) {
+                for (int x = topLeft.x; x <= bottomRight.x; x++) {
+                    tiles.add(new ZoomXY(zoom, x, y));
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Spaces requests evenly so the tile API quota is not exceeded.
+     */
+    private static class RateLimiter {
+        private final long interval;
+        private long next;
+
+        RateLimiter(double permitsPerSecond) {
+            interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            next = System.nanoTime();
+        }
+
+        void acquire() throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                next = Math.max(next, now);
+                wait = next - now;
+                next += interval;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}